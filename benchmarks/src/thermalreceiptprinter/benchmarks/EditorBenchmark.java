@@ -0,0 +1,69 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.awt.GraphicsEnvironment;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import thermalreceiptprinter.MainFrame;
+
+/**
+ * The editor's markup round trip on a real, hidden {@link MainFrame}:
+ * loading markup into the styled document and serializing it back
+ * ({@code getFormattedText()}). Both run on the event dispatch thread, as in
+ * the application. Needs a display.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EditorBenchmark {
+
+    @Param({"template-01", "template-10"})
+    public String template;
+
+    private String markup;
+    private MainFrame frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (GraphicsEnvironment.isHeadless()) {
+            throw new IllegalStateException("EditorBenchmark needs a display; exclude it with -e EditorBenchmark");
+        }
+        markup = Fixtures.markup(template);
+        SwingUtilities.invokeAndWait(() -> {
+            frame = new MainFrame();
+            frame.setReceiptContent(markup);
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        SwingUtilities.invokeAndWait(frame::dispose);
+    }
+
+    @Benchmark
+    public void setReceiptContent() throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(() -> frame.setReceiptContent(markup));
+    }
+
+    @Benchmark
+    public String getFormattedText() throws InterruptedException, InvocationTargetException {
+        String[] result = new String[1];
+        SwingUtilities.invokeAndWait(() -> result[0] = frame.getReceiptContent());
+        return result[0];
+    }
+}
@@ -0,0 +1,35 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import thermalreceiptprinter.ReceiptDocument;
+
+/**
+ * Receipt markup from the project's templates/ directory. The benchmarks run
+ * with the project directory as working directory, like the application.
+ */
+final class Fixtures {
+
+    static final Path TEMPLATES_DIR = Paths.get("templates");
+
+    private Fixtures() {
+    }
+
+    static String markup(String templateName) {
+        Path file = TEMPLATES_DIR.resolve(templateName + ".template");
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Missing fixture " + file.toAbsolutePath()
+                    + "; run the benchmarks from the project directory", e);
+        }
+    }
+
+    static ReceiptDocument document(String templateName) {
+        return ReceiptDocument.parse(markup(templateName), null);
+    }
+}
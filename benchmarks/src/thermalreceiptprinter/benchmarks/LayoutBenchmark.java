@@ -0,0 +1,56 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import thermalreceiptprinter.ReceiptDocument;
+import thermalreceiptprinter.ReceiptLayout;
+import thermalreceiptprinter.ReceiptLine;
+
+/**
+ * The TSP100 column layout: alignment padding, soft-wrapping of long lines
+ * with their formatting kept, and table columns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LayoutBenchmark {
+
+    @Param({"template-01", "template-06", "template-10"})
+    public String template;
+
+    private ReceiptDocument document;
+    private ReceiptLayout padded;
+    private ReceiptLayout narrow;
+
+    @Setup
+    public void setUp() {
+        document = Fixtures.document(template);
+        padded = new ReceiptLayout(ReceiptLayout.TSP100_CHAR_WIDTH, "CENTER");
+        // 58mm paper wraps most lines of the fixtures
+        narrow = new ReceiptLayout(32, "LEFT");
+    }
+
+    @Benchmark
+    public List<ReceiptLine> layoutTsp100() {
+        return padded.layout(document);
+    }
+
+    @Benchmark
+    public List<ReceiptLine> layoutWrapping() {
+        return narrow.layout(document);
+    }
+}
@@ -0,0 +1,54 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import thermalreceiptprinter.MarkupTokenizer;
+import thermalreceiptprinter.ReceiptDocument;
+
+/**
+ * Parsing receipt markup into tokens and documents.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkupBenchmark {
+
+    @Param({"template-01", "template-06", "template-10"})
+    public String template;
+
+    private String markup;
+
+    @Setup
+    public void setUp() {
+        markup = Fixtures.markup(template);
+    }
+
+    @Benchmark
+    public List<MarkupTokenizer.Token> tokenize() {
+        return MarkupTokenizer.tokenize(markup);
+    }
+
+    @Benchmark
+    public String stripTags() {
+        return MarkupTokenizer.stripTags(markup, true);
+    }
+
+    @Benchmark
+    public ReceiptDocument parse() {
+        return ReceiptDocument.parse(markup, null);
+    }
+}
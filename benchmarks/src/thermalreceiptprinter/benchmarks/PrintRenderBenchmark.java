@@ -0,0 +1,72 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.print.PrinterException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import thermalreceiptprinter.EscPosReceiptPrinter;
+import thermalreceiptprinter.RasterReceiptPrinter;
+import thermalreceiptprinter.ReceiptDocument;
+import thermalreceiptprinter.ReceiptLayout;
+import thermalreceiptprinter.ReceiptPrintable;
+
+/**
+ * Rendering a receipt page: {@link ReceiptPrintable} onto an offscreen image
+ * at printer resolution, as the batch printer does for PNG output, next to
+ * the 1-bit raster and ESC/POS backends.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PrintRenderBenchmark {
+
+    private static final int FONT_SIZE = 12;
+
+    @Param({"template-01", "template-10"})
+    public String template;
+
+    private ReceiptDocument document;
+    private ReceiptPrintable printable;
+    private RasterReceiptPrinter rasterPrinter;
+    private EscPosReceiptPrinter escPosPrinter;
+
+    @Setup
+    public void setUp() {
+        document = Fixtures.document(template);
+        ReceiptLayout layout = new ReceiptLayout(ReceiptLayout.TSP100_CHAR_WIDTH, "LEFT");
+        printable = new ReceiptPrintable(document, layout, FONT_SIZE, 1.0f, "Courier New");
+
+        rasterPrinter = new RasterReceiptPrinter(ReceiptLayout.TSP100_CHAR_WIDTH, "LEFT",
+                EscPosReceiptPrinter.PRINTER_DOTS_80MM, FONT_SIZE, 1.0f, "Courier New");
+        escPosPrinter = new EscPosReceiptPrinter(ReceiptLayout.TSP100_CHAR_WIDTH, "LEFT");
+    }
+
+    @Benchmark
+    public BufferedImage printableToImage() throws PrinterException {
+        return printable.renderToImage(EscPosReceiptPrinter.PRINTER_DOTS_80MM);
+    }
+
+    @Benchmark
+    public RasterReceiptPrinter.Bitmap rasterRender() {
+        return rasterPrinter.render(document);
+    }
+
+    @Benchmark
+    public byte[] escPosBytes() throws IOException {
+        return escPosPrinter.toBytes(document);
+    }
+}
@@ -0,0 +1,55 @@
+package thermalreceiptprinter.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import thermalreceiptprinter.ReceiptTemplate;
+import thermalreceiptprinter.TemplateManager;
+
+/**
+ * Template listing and loading against the project's templates/ directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    private TemplateManager manager;
+
+    @Setup
+    public void setUp() {
+        manager = new TemplateManager();
+    }
+
+    @Benchmark
+    public List<String> listTemplates() {
+        return manager.listTemplates();
+    }
+
+    @Benchmark
+    public String loadTemplate() {
+        return manager.loadTemplate("template-10");
+    }
+
+    @Benchmark
+    public ReceiptTemplate getCompiledTemplate() {
+        return manager.getCompiledTemplate("template-10");
+    }
+
+    @Benchmark
+    public List<TemplateManager.TemplateInfo> searchTemplates() {
+        return manager.searchTemplates("total cash");
+    }
+}
@@ -0,0 +1,464 @@
+package thermalreceiptprinter;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.print.Book;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+import javax.print.PrintService;
+import javax.print.attribute.PrintRequestAttributeSet;
+
+/**
+ * Headless entry point that prints a template many times without the editor,
+ * e.g. for end-of-day reprints. No Swing component is created.
+ *
+ * <pre>
+ * java -jar ReceiptPrinter.jar --batch
+ *      (--template NAME | --template-file FILE) [--data FILE|DIR]... [--count N]
+ *      (--printer NAME | --escpos-printer NAME | --escpos FILE | --png DIR
+ *       | --raster-printer NAME | --raster FILE | --pbm DIR) [--dots 576|384]
+ * </pre>
+ *
+ * Each data file is a properties file rendered through {@link ReceiptTemplate}
+ * (e.g. {@code store.name=...}, {@code items.0.name=...}) and holds one
+ * receipt; {@code --data} may be repeated, and a directory stands for all
+ * {@code *.properties} files in it, in name order. Every record is printed
+ * {@code --count} times and {@code {{receipt.number}}} is set to 1..N.
+ *
+ * Receipts are rendered one at a time as the target consumes them, so a
+ * large batch never holds more than one receipt in memory.
+ */
+public class BatchPrinter {
+
+    public enum Target {
+        PRINTER, ESCPOS_PRINTER, ESCPOS_FILE, PNG, RASTER_PRINTER, RASTER_FILE, PBM
+    }
+
+    private String templateName;
+    private File templateFile;
+    private final List<File> dataFiles = new ArrayList<>();
+    private int count = 1;
+    private Target target;
+    private String destination;
+
+    private int width = ReceiptLayout.TSP100_CHAR_WIDTH;
+    private String alignment = "LEFT";
+    private int fontSize = 12;
+    private float lineSpacing = 1.0f;
+    private String fontFamily = "Courier New";
+    private int printerDots = EscPosReceiptPrinter.PRINTER_DOTS_80MM;
+
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        BatchPrinter batch = new BatchPrinter();
+        try {
+            batch.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            int printed = batch.run();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Printed " + printed + " receipt(s) in " + millis + " ms");
+        } catch (IOException | PrinterException e) {
+            System.err.println("Batch print failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: BatchPrinter (--template NAME | --template-file FILE) [--data FILE|DIR]... [--count N]");
+        System.err.println("                    (--printer NAME | --escpos-printer NAME | --escpos FILE | --png DIR");
+        System.err.println("                     | --raster-printer NAME | --raster FILE | --pbm DIR)");
+        System.err.println("                    [--width CHARS] [--align LEFT|CENTER|RIGHT] [--font-size PT]");
+        System.err.println("                    [--line-spacing X] [--font FAMILY] [--dots 576|384]");
+    }
+
+    void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--template":
+                    templateName = value;
+                    break;
+                case "--template-file":
+                    templateFile = new File(value);
+                    break;
+                case "--data":
+                    dataFiles.add(new File(value));
+                    break;
+                case "--count":
+                    count = parseInt(option, value);
+                    break;
+                case "--printer":
+                    setTarget(Target.PRINTER, value);
+                    break;
+                case "--escpos-printer":
+                    setTarget(Target.ESCPOS_PRINTER, value);
+                    break;
+                case "--escpos":
+                    setTarget(Target.ESCPOS_FILE, value);
+                    break;
+                case "--png":
+                    setTarget(Target.PNG, value);
+                    break;
+                case "--raster-printer":
+                    setTarget(Target.RASTER_PRINTER, value);
+                    break;
+                case "--raster":
+                    setTarget(Target.RASTER_FILE, value);
+                    break;
+                case "--pbm":
+                    setTarget(Target.PBM, value);
+                    break;
+                case "--dots":
+                    printerDots = parseInt(option, value);
+                    break;
+                case "--width":
+                    width = parseInt(option, value);
+                    break;
+                case "--align":
+                    alignment = value.toUpperCase();
+                    break;
+                case "--font-size":
+                    fontSize = parseInt(option, value);
+                    break;
+                case "--line-spacing":
+                    try {
+                        lineSpacing = Float.parseFloat(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+                    }
+                    break;
+                case "--font":
+                    fontFamily = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        if ((templateName == null) == (templateFile == null)) {
+            throw new IllegalArgumentException("Specify exactly one of --template or --template-file");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Specify a target: --printer, --escpos-printer, --escpos, --png, "
+                    + "--raster-printer, --raster or --pbm");
+        }
+        if (printerDots < 8 || printerDots % 8 != 0) {
+            throw new IllegalArgumentException("--dots must be a multiple of 8");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("--count must be at least 1");
+        }
+    }
+
+    private void setTarget(Target newTarget, String value) {
+        if (target != null) {
+            throw new IllegalArgumentException("Only one target may be given");
+        }
+        target = newTarget;
+        destination = value;
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    public int run() throws IOException, PrinterException {
+        TemplateManager templateManager = templateName != null ? new TemplateManager() : null;
+        Receipts receipts = new Receipts(loadTemplate(templateManager), loadLogo(templateManager),
+                listDataFiles());
+
+        switch (target) {
+            case PRINTER:
+                printToPrinter(receipts);
+                break;
+            case ESCPOS_PRINTER:
+                printToEscPosPrinter(receipts);
+                break;
+            case ESCPOS_FILE:
+                writeEscPosFile(receipts);
+                break;
+            case PNG:
+                writePngFiles(receipts);
+                break;
+            case RASTER_PRINTER:
+                printToRasterPrinter(receipts);
+                break;
+            case RASTER_FILE:
+                writeRasterFile(receipts);
+                break;
+            case PBM:
+                writePbmFiles(receipts);
+                break;
+        }
+        return receipts.size();
+    }
+
+    /**
+     * Renders receipt {@code index} of the batch on demand. The last record
+     * and receipt are kept, so asking for the same page again (as printer
+     * drivers do when banding) does not render it twice.
+     */
+    private class Receipts {
+
+        private final ReceiptTemplate template;
+        private final ReceiptDocument.LogoBlock logo;
+        private final List<File> records;
+        private final StringBuilder markup = new StringBuilder();
+
+        private int dataIndex = -1;
+        private Map<String, Object> data;
+        private int receiptIndex = -1;
+        private ReceiptDocument receipt;
+
+        Receipts(ReceiptTemplate template, ReceiptDocument.LogoBlock logo, List<File> records) {
+            this.template = template;
+            this.logo = logo;
+            this.records = records;
+        }
+
+        int size() {
+            return Math.max(1, records.size()) * count;
+        }
+
+        ReceiptDocument get(int index) throws IOException {
+            if (index != receiptIndex) {
+                int record = index / count;
+                if (record != dataIndex) {
+                    data = loadData(records.isEmpty() ? null : records.get(record));
+                    dataIndex = record;
+                }
+                data.put("receipt.number", index + 1);
+                markup.setLength(0);
+                template.render(data, markup);
+                receipt = ReceiptDocument.parse(markup.toString(), logo);
+                receiptIndex = index;
+            }
+            return receipt;
+        }
+    }
+
+    private ReceiptTemplate loadTemplate(TemplateManager templateManager) throws IOException {
+        if (templateFile != null) {
+            try {
+                return ReceiptTemplate.compile(
+                        new String(Files.readAllBytes(templateFile.toPath()), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid template " + templateFile + ": " + e.getMessage());
+            }
+        }
+
+        ReceiptTemplate template = templateManager.getCompiledTemplate(templateName);
+        if (template == null) {
+            throw new IOException("Template not found or invalid: " + templateName);
+        }
+        return template;
+    }
+
+    private ReceiptDocument.LogoBlock loadLogo(TemplateManager templateManager) {
+        if (templateManager == null) {
+            return null;
+        }
+
+        TemplateManager.TemplateInfo info = templateManager.getTemplateInfo(templateName);
+        if (info == null || !info.hasLogo()) {
+            return null;
+        }
+
+        try {
+            BufferedImage image = LogoRaster.read(new File(info.getLogoPath()));
+            if (image == null) {
+                return null;
+            }
+            return new ReceiptDocument.LogoBlock(image, info.getLogoPath(), info.getLogoWidth(),
+                    info.getLogoAlignment());
+        } catch (IOException e) {
+            System.err.println("Failed to load logo from path: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<File> listDataFiles() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File file : dataFiles) {
+            if (file.isDirectory()) {
+                File[] records = file.listFiles((dir, name) -> name.endsWith(".properties"));
+                if (records == null) {
+                    throw new IOException("Cannot read data directory: " + file);
+                }
+                Arrays.sort(records);
+                files.addAll(Arrays.asList(records));
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, Object> loadData(File file) throws IOException {
+        Properties props = new Properties();
+        if (file != null) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        }
+        return ReceiptTemplate.dataFromProperties(props);
+    }
+
+    private ReceiptLayout createLayout() {
+        return new ReceiptLayout(width, alignment);
+    }
+
+    private ReceiptPrintable createPrintable(ReceiptDocument receipt) {
+        return new ReceiptPrintable(receipt, createLayout(), fontSize, lineSpacing, fontFamily);
+    }
+
+    private void printToPrinter(Receipts receipts) throws PrinterException {
+        PrintService service = ReceiptPrintable.findPrintService(destination);
+        if (service == null) {
+            throw new PrinterException("Printer not found: " + destination);
+        }
+
+        PrinterJob job = PrinterJob.getPrinterJob();
+        job.setPrintService(service);
+        job.setJobName("Receipt batch (" + receipts.size() + ")");
+
+        PrintRequestAttributeSet attributes = ReceiptPrintable.createPrintAttributes();
+        PageFormat pageFormat = job.getPageFormat(attributes);
+
+        // One spool job with a page per receipt instead of thousands of jobs.
+        // The job passes the page's index in the whole book; that receipt is
+        // rendered when the job asks for it and drawn as a single page.
+        Printable pages = new Printable() {
+            private int index = -1;
+            private Printable printable;
+
+            @Override
+            public int print(Graphics graphics, PageFormat format, int page) throws PrinterException {
+                if (page >= receipts.size()) {
+                    return NO_SUCH_PAGE;
+                }
+                if (page != index) {
+                    try {
+                        printable = createPrintable(receipts.get(page));
+                    } catch (IOException e) {
+                        throw new PrinterException("Cannot read receipt data: " + e.getMessage());
+                    }
+                    index = page;
+                }
+                return printable.print(graphics, format, 0);
+            }
+        };
+        Book book = new Book();
+        book.append(pages, pageFormat, receipts.size());
+        job.setPageable(book);
+        job.print(attributes);
+    }
+
+    private RasterReceiptPrinter createRasterPrinter() {
+        return new RasterReceiptPrinter(width, alignment, printerDots, fontSize, lineSpacing, fontFamily);
+    }
+
+    private EscPosReceiptPrinter createEscPosPrinter() {
+        return new EscPosReceiptPrinter(width, alignment, printerDots);
+    }
+
+    private void printToEscPosPrinter(Receipts receipts) throws IOException {
+        EscPosReceiptPrinter printer = createEscPosPrinter();
+        for (int i = 0; i < receipts.size(); i++) {
+            printer.print(receipts.get(i), destination);
+        }
+    }
+
+    private void writeEscPosFile(Receipts receipts) throws IOException {
+        EscPosReceiptPrinter printer = createEscPosPrinter();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+            for (int i = 0; i < receipts.size(); i++) {
+                printer.write(receipts.get(i), out);
+            }
+        }
+    }
+
+    private void printToRasterPrinter(Receipts receipts) throws IOException {
+        RasterReceiptPrinter printer = createRasterPrinter();
+        for (int i = 0; i < receipts.size(); i++) {
+            printer.print(receipts.get(i), destination);
+        }
+    }
+
+    private void writeRasterFile(Receipts receipts) throws IOException {
+        RasterReceiptPrinter printer = createRasterPrinter();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+            for (int i = 0; i < receipts.size(); i++) {
+                printer.write(receipts.get(i), out);
+            }
+        }
+    }
+
+    private void writePbmFiles(Receipts receipts) throws IOException {
+        File directory = createOutputDirectory();
+        RasterReceiptPrinter printer = createRasterPrinter();
+        for (int i = 0; i < receipts.size(); i++) {
+            File output = new File(directory, String.format("receipt-%05d.pbm", i + 1));
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                printer.writePbm(receipts.get(i), out);
+            }
+        }
+    }
+
+    private File createOutputDirectory() throws IOException {
+        File directory = new File(destination);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create output directory: " + destination);
+        }
+        return directory;
+    }
+
+    private void writePngFiles(Receipts receipts) throws IOException, PrinterException {
+        File directory = createOutputDirectory();
+        for (int i = 0; i < receipts.size(); i++) {
+            // 72mm printable width of 80mm paper
+            BufferedImage image = createPrintable(receipts.get(i))
+                    .renderToImage(EscPosReceiptPrinter.PRINTER_DOTS_80MM);
+            File output = new File(directory, String.format("receipt-%05d.png", i + 1));
+            ImageIO.write(image, "png", output);
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package thermalreceiptprinter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The original layout: a {@code .template} and a {@code .info} file per
+ * template. The directory is scanned once into an in-memory index; afterwards
+ * entries are refreshed by explicit invalidation from this process and by a
+ * {@link WatchService} for changes made by other programs or terminals.
+ *
+ * A save writes both files to temporaries, flushes them to disk, records a
+ * commit marker and only then moves them over the originals. If a terminal
+ * dies half way, the next one to start either finishes the save (marker
+ * present) or discards the temporaries (no marker), so a template never ends
+ * up with a truncated file or with the other half of an older save.
+ *
+ * Leftovers of a writer on this machine are cleaned up as soon as its process
+ * is gone; those of another terminal sharing the directory only once they are
+ * stale, and always under the template's lock.
+ *
+ * Writers of the same template, in this process or another one, take turns
+ * on one of {@value #LOCK_STRIPES} stripes: an in-process lock plus a byte
+ * range lock on {@code .templates.lock}. Readers never lock; they always see
+ * a complete file because files are only ever replaced by a move.
+ *
+ * The {@code .template} is moved before the {@code .info}. Between the two
+ * moves a reader can pair the new body with the old metadata, never a new
+ * description with text it cannot load yet; the watcher refreshes the entry
+ * again when the info lands, and the version check on save re-reads both
+ * files under the lock.
+ */
+final class DirectoryTemplateStore implements TemplateStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String COMMIT_SUFFIX = ".commit";
+
+    // Leftovers of a writer that may still be alive (e.g. on another machine
+    // sharing the directory) are only touched after this long
+    private static final long STALE_WRITE_MILLIS = 10 * 60 * 1000L;
+
+    private static final AtomicLong WRITE_COUNTER = new AtomicLong();
+
+    // Write ids are <host>-<pid>-<n>; a pid only says something about
+    // writers on this machine
+    private static final String HOST_ID = hostId();
+
+    private static final String LOCK_FILE = ".templates.lock";
+    private static final int LOCK_STRIPES = 16;
+
+    private interface LockedAction<T> {
+
+        T run() throws IOException;
+    }
+
+    private final Path directory;
+    private final String templateExtension;
+    private final String infoExtension;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded = false;
+    private volatile List<String> sortedNames = null;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private Thread watcherThread;
+
+    DirectoryTemplateStore(Path directory, String templateExtension, String infoExtension) {
+        this.directory = directory;
+        this.templateExtension = templateExtension;
+        this.infoExtension = infoExtension;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public Entry get(String fileName) {
+        ensureLoaded();
+        return entries.get(fileName);
+    }
+
+    @Override
+    public List<Entry> getEntries() {
+        ensureLoaded();
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns the sorted display names, rebuilt only after a change.
+     */
+    @Override
+    public List<String> getDisplayNames() {
+        ensureLoaded();
+        List<String> names = sortedNames;
+        if (names == null) {
+            names = new ArrayList<>(entries.size());
+            for (Entry entry : entries.values()) {
+                names.add(entry.getDisplayName());
+            }
+            Collections.sort(names);
+            names = Collections.unmodifiableList(names);
+            sortedNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Re-reads one template from disk, e.g. right after it was saved. Holds
+     * the template's stripe so an older read cannot overwrite a newer one.
+     */
+    void refresh(String fileName) {
+        if (!loaded) {
+            return;
+        }
+        ReentrantLock stripe = stripes[stripeOf(fileName)];
+        stripe.lock();
+        try {
+            Entry entry = readEntry(fileName);
+            if (entry != null) {
+                entries.put(fileName, entry);
+            } else {
+                entries.remove(fileName);
+            }
+            sortedNames = null;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public String read(String fileName) throws IOException {
+        try {
+            return new String(Files.readAllBytes(directory.resolve(fileName + templateExtension)),
+                    StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(String fileName, String content, TemplateManager.TemplateInfo info, long expectedVersion)
+            throws IOException {
+        withLock(fileName, () -> {
+            if (expectedVersion != ANY_VERSION) {
+                // What is on disk now, not what the watcher has told us so far
+                Entry current = readEntry(fileName);
+                long actualVersion = current != null ? current.getVersion() : NO_VERSION;
+                if (actualVersion != expectedVersion) {
+                    throw new TemplateConflictException(fileName, expectedVersion, actualVersion);
+                }
+            }
+            writeFiles(fileName, content, info);
+            refresh(fileName);
+            return null;
+        });
+    }
+
+    /**
+     * Runs {@code action} holding the template's stripe in this process and
+     * across processes.
+     */
+    private <T> T withLock(String fileName, LockedAction<T> action) throws IOException {
+        int stripe = stripeOf(fileName);
+        stripes[stripe].lock();
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed
+            channel.lock(stripe, 1, false);
+            return action.run();
+        } finally {
+            stripes[stripe].unlock();
+        }
+    }
+
+    private static int stripeOf(String fileName) {
+        return Math.floorMod(fileName.hashCode(), LOCK_STRIPES);
+    }
+
+    private void writeFiles(String fileName, String content, TemplateManager.TemplateInfo info)
+            throws IOException {
+        String writeId = HOST_ID + "-" + ProcessHandle.current().pid() + "-" + WRITE_COUNTER.incrementAndGet();
+        Path templatePath = directory.resolve(fileName + templateExtension);
+        Path infoPath = directory.resolve(fileName + infoExtension);
+        Path templateTemp = tempPath(templatePath, writeId);
+        Path infoTemp = tempPath(infoPath, writeId);
+        Path commit = directory.resolve(fileName + "." + writeId + COMMIT_SUFFIX);
+
+        ByteArrayOutputStream infoBytes = new ByteArrayOutputStream();
+        info.toProperties().store(infoBytes, "Template Information");
+
+        boolean committed = false;
+        try {
+            writeDurably(templateTemp, content.getBytes(StandardCharsets.UTF_8));
+            writeDurably(infoTemp, infoBytes.toByteArray());
+
+            // From here on a crash is rolled forward by recover()
+            writeDurably(commit, new byte[0]);
+            committed = true;
+
+            // Body before metadata, see the class comment
+            moveIntoPlace(templateTemp, templatePath);
+            moveIntoPlace(infoTemp, infoPath);
+            Files.deleteIfExists(commit);
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(templateTemp);
+                Files.deleteIfExists(infoTemp);
+            }
+        }
+    }
+
+    private static Path tempPath(Path target, String writeId) {
+        return target.resolveSibling(target.getFileName() + "." + writeId + TEMP_SUFFIX);
+    }
+
+    private static void writeDurably(Path path, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Replaces {@code target} in one step. A missing source is an error: the
+     * save did not reach the disk, even if an older target is still there.
+     */
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public boolean delete(String fileName) throws IOException {
+        boolean templateDeleted = withLock(fileName, () -> {
+            boolean deleted = Files.deleteIfExists(directory.resolve(fileName + templateExtension));
+            Files.deleteIfExists(directory.resolve(fileName + infoExtension));
+            entries.remove(fileName);
+            sortedNames = null;
+            return deleted;
+        });
+        return templateDeleted;
+    }
+
+    /**
+     * Drops everything; the next access rescans the directory.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        loaded = false;
+        entries.clear();
+        sortedNames = null;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            recover();
+            scan();
+            loaded = true;
+            startWatching();
+        }
+    }
+
+    private void scan() {
+        Map<String, Entry> scanned = new HashMap<>();
+
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(path -> path.getFileName().toString())
+                        .filter(name -> name.endsWith(templateExtension))
+                        .map(name -> name.substring(0, name.length() - templateExtension.length()))
+                        .forEach(fileName -> {
+                            Entry entry = readEntry(fileName);
+                            if (entry != null) {
+                                scanned.put(fileName, entry);
+                            }
+                        });
+            } catch (IOException e) {
+                System.err.println("Failed to list templates: " + e.getMessage());
+            }
+        }
+
+        // Swap in place so concurrent readers never see an empty index
+        entries.keySet().retainAll(scanned.keySet());
+        entries.putAll(scanned);
+        sortedNames = null;
+    }
+
+    /**
+     * Finishes or discards saves that were interrupted by a crash.
+     */
+    private void recover() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> leftovers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.endsWith(COMMIT_SUFFIX) || name.endsWith(TEMP_SUFFIX);
+            }).forEach(leftovers::add);
+        } catch (IOException e) {
+            System.err.println("Failed to check for interrupted template saves: " + e.getMessage());
+            return;
+        }
+
+        // Markers first: their temporaries must not be discarded
+        for (Path path : leftovers) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(COMMIT_SUFFIX)) {
+                rollForward(path, name.substring(0, name.length() - COMMIT_SUFFIX.length()));
+            }
+        }
+        for (Path path : leftovers) {
+            String name = path.getFileName().toString();
+            String fileName = templateNameOf(name);
+            if (fileName == null) {
+                continue;
+            }
+            try {
+                String writeId = writeIdOf(name);
+                if (!isAbandoned(path, writeId)) {
+                    continue;
+                }
+                // The writer holds the stripe until its temporaries are moved
+                // or removed, so whatever is left after waiting for it is ours
+                boolean deleted = withLock(fileName,
+                        () -> Files.exists(path) && isAbandoned(path, writeId) && Files.deleteIfExists(path));
+                if (deleted) {
+                    System.err.println("Discarded unfinished template save: " + name);
+                }
+            } catch (NoSuchFileException e) {
+                // Already moved into place above
+            } catch (IOException e) {
+                System.err.println("Failed to remove " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void rollForward(Path commit, String markerName) {
+        int dot = markerName.lastIndexOf('.');
+        if (dot <= 0) {
+            return;
+        }
+        String fileName = markerName.substring(0, dot);
+        String writeId = markerName.substring(dot + 1);
+
+        try {
+            if (!isAbandoned(commit, writeId)) {
+                return;
+            }
+            withLock(fileName, () -> {
+                long committedAt = Files.getLastModifiedTime(commit).toMillis();
+                finishMove(directory.resolve(fileName + templateExtension), writeId, committedAt);
+                finishMove(directory.resolve(fileName + infoExtension), writeId, committedAt);
+                return Files.deleteIfExists(commit);
+            });
+            System.err.println("Recovered interrupted save of template " + fileName);
+        } catch (NoSuchFileException e) {
+            // Another terminal recovered it first
+        } catch (IOException e) {
+            System.err.println("Failed to recover template " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    private static void finishMove(Path target, String writeId, long committedAt) throws IOException {
+        Path temp = tempPath(target, writeId);
+        if (!Files.exists(temp)) {
+            return;
+        }
+        // A later save has already replaced the file; keep that one
+        if (Files.exists(target) && Files.getLastModifiedTime(target).toMillis() > committedAt) {
+            Files.deleteIfExists(temp);
+            return;
+        }
+        moveIntoPlace(temp, target);
+    }
+
+    /**
+     * The template a temporary belongs to, or null if it is not one of ours.
+     */
+    private String templateNameOf(String tempName) {
+        if (!tempName.endsWith(TEMP_SUFFIX)) {
+            return null;
+        }
+        String base = tempName.substring(0, tempName.length() - TEMP_SUFFIX.length());
+        int dot = base.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String target = base.substring(0, dot);
+        if (target.endsWith(templateExtension)) {
+            return target.substring(0, target.length() - templateExtension.length());
+        } else if (target.endsWith(infoExtension)) {
+            return target.substring(0, target.length() - infoExtension.length());
+        }
+        return null;
+    }
+
+    private static String writeIdOf(String tempName) {
+        String base = tempName.substring(0, tempName.length() - TEMP_SUFFIX.length());
+        return base.substring(base.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * True when the write is old enough that it cannot still be running, or
+     * it was started on this machine by a process that is gone. A writer on
+     * another terminal sharing the directory is only ever judged by age.
+     */
+    private static boolean isAbandoned(Path path, String writeId) throws IOException {
+        long age = System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis();
+        if (age > STALE_WRITE_MILLIS) {
+            return true;
+        }
+        String[] parts = writeId.split("-");
+        if (parts.length != 3 || !parts[0].equals(HOST_ID)) {
+            return false;
+        }
+        try {
+            long pid = Long.parseLong(parts[1]);
+            return pid != ProcessHandle.current().pid()
+                    && !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A short id for this machine that is safe to put in a file name. If the
+     * host name is unknown the id is random, so other writers are judged by
+     * age only.
+     */
+    private static String hostId() {
+        String host = System.getenv("COMPUTERNAME");
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            // Keep the environment's name, if any
+        }
+        int hash = host != null ? host.toLowerCase().hashCode() : ThreadLocalRandom.current().nextInt();
+        return Integer.toHexString(hash);
+    }
+
+    private Entry readEntry(String fileName) {
+        Path templatePath = directory.resolve(fileName + templateExtension);
+        try {
+            byte[] content = Files.readAllBytes(templatePath);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            byte[] infoBytes = readInfoBytes(directory.resolve(fileName + infoExtension));
+            TemplateManager.TemplateInfo info = parseTemplateInfo(infoBytes, fileName);
+            return new Entry(fileName, info, crc.getValue(), content.length,
+                    Files.getLastModifiedTime(templatePath).toMillis(), Entry.version(crc, infoBytes));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to index template " + fileName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] readInfoBytes(Path infoPath) throws IOException {
+        try {
+            return Files.readAllBytes(infoPath);
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        }
+    }
+
+    private static TemplateManager.TemplateInfo parseTemplateInfo(byte[] infoBytes, String fileName) {
+        if (infoBytes.length == 0) {
+            return null;
+        }
+        try {
+            Properties props = new Properties();
+            props.load(new ByteArrayInputStream(infoBytes));
+            return TemplateManager.TemplateInfo.fromProperties(props, fileName);
+        } catch (Exception e) {
+            System.err.println("Failed to load template info: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void startWatching() {
+        if (watcherThread != null || !Files.isDirectory(directory)) {
+            return;
+        }
+
+        WatchService watchService;
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Template directory will not be watched: " + e.getMessage());
+            return;
+        }
+
+        watcherThread = new Thread(() -> watch(watchService), "template-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    String fileName = stripExtension(name);
+                    if (fileName != null) {
+                        refresh(fileName);
+                    }
+                }
+                if (!key.reset()) {
+                    // Directory is gone; rescan on next access
+                    invalidateAll();
+                    synchronized (this) {
+                        watcherThread = null;
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Shut down
+        }
+    }
+
+    private synchronized void rescan() {
+        if (loaded) {
+            scan();
+        }
+    }
+
+    private String stripExtension(String name) {
+        if (name.endsWith(templateExtension)) {
+            return name.substring(0, name.length() - templateExtension.length());
+        } else if (name.endsWith(infoExtension)) {
+            return name.substring(0, name.length() - infoExtension.length());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,147 @@
+package thermalreceiptprinter;
+
+import com.github.anastaciocintra.escpos.EscPos;
+import com.github.anastaciocintra.escpos.EscPosConst;
+import com.github.anastaciocintra.escpos.Style;
+import com.github.anastaciocintra.escpos.image.BitonalThreshold;
+import com.github.anastaciocintra.escpos.image.CoffeeImageImpl;
+import com.github.anastaciocintra.escpos.image.EscPosImage;
+import com.github.anastaciocintra.escpos.image.RasterBitImageWrapper;
+import com.github.anastaciocintra.output.PrinterOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.print.PrintService;
+
+/**
+ * Print backend that translates a receipt straight into ESC/POS commands
+ * (bold, character size, justification, cut) instead of rasterizing a page
+ * through the OS print driver.
+ */
+public class EscPosReceiptPrinter {
+
+    public static final int PRINTER_DOTS_80MM = 576;
+    public static final int PRINTER_DOTS_58MM = 384;
+    private static final int FEED_LINES_BEFORE_CUT = 5;
+
+    private final ReceiptLayout layout;
+    private final int printerDots;
+    private boolean cutPaper = true;
+
+    public EscPosReceiptPrinter(int width, String defaultAlignment) {
+        this(width, defaultAlignment, PRINTER_DOTS_80MM);
+    }
+
+    public EscPosReceiptPrinter(int width, String defaultAlignment, int printerDots) {
+        // Lines are measured at the magnification they will be printed with
+        this.layout = new ReceiptLayout(width, defaultAlignment, false,
+                run -> magnification(run.hasSize() ? run.getSize() : ReceiptLayout.DEFAULT_TEXT_SIZE));
+        this.printerDots = printerDots;
+    }
+
+    public void setCutPaper(boolean cutPaper) {
+        this.cutPaper = cutPaper;
+    }
+
+    public static String[] getPrinterNames() {
+        return PrinterOutputStream.getListPrintServicesNames();
+    }
+
+    /**
+     * Sends the receipt to the named print service as raw bytes.
+     */
+    public void print(ReceiptDocument document, String printerName) throws IOException {
+        send(toBytes(document), printerName);
+    }
+
+    /**
+     * Sends ready-made printer commands to the named print service, or the
+     * default one if the name is null.
+     */
+    static void send(byte[] commands, String printerName) throws IOException {
+        PrintService service = printerName != null
+                ? PrinterOutputStream.getPrintServiceByName(printerName)
+                : PrinterOutputStream.getDefaultPrintService();
+        if (service == null) {
+            throw new IOException("Printer not found: " + printerName);
+        }
+
+        try (PrinterOutputStream out = new PrinterOutputStream(service)) {
+            out.write(commands);
+        }
+    }
+
+    public byte[] toBytes(ReceiptDocument document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        write(document, out);
+        return out.toByteArray();
+    }
+
+    public void write(ReceiptDocument document, OutputStream out) throws IOException {
+        EscPos escpos = new EscPos(out);
+        escpos.initializePrinter();
+
+        if (document.hasLogo()) {
+            writeLogo(escpos, document.getLogo());
+        }
+
+        for (ReceiptLine line : layout.layout(document)) {
+            if (line.isBlank()) {
+                escpos.feed(1);
+                continue;
+            }
+
+            EscPosConst.Justification justification = toJustification(line.getAlignment());
+            for (StyledRun run : line.getRuns()) {
+                escpos.write(toStyle(run, justification), run.getText());
+            }
+            escpos.write(EscPosConst.LF);
+        }
+
+        escpos.feed(FEED_LINES_BEFORE_CUT);
+        if (cutPaper) {
+            escpos.cut(EscPos.CutMode.PART);
+        }
+        escpos.flush();
+    }
+
+    private void writeLogo(EscPos escpos, ReceiptDocument.LogoBlock logo) throws IOException {
+        // Already dithered and aligned across the full head width
+        BufferedImage raster = LogoRaster.get(logo, LogoRaster.pointsToDots(logo.getWidth()), printerDots);
+
+        RasterBitImageWrapper wrapper = new RasterBitImageWrapper();
+        escpos.write(wrapper, new EscPosImage(new CoffeeImageImpl(raster), new BitonalThreshold()));
+        escpos.feed(1);
+    }
+
+    private static Style toStyle(StyledRun run, EscPosConst.Justification justification) {
+        Style.FontSize size = toFontSize(run.hasSize() ? run.getSize() : ReceiptLayout.DEFAULT_TEXT_SIZE);
+        return new Style()
+                .setBold(run.isBold())
+                .setFontSize(size, size)
+                .setJustification(justification);
+    }
+
+    static Style.FontSize toFontSize(int pointSize) {
+        return Style.FontSize.values()[magnification(pointSize) - 1];
+    }
+
+    /**
+     * Maps a point size to the printer's 1x-8x character magnification,
+     * taking the editor's default 14pt as 1x.
+     */
+    static int magnification(int pointSize) {
+        int scale = (int) Math.round(pointSize / (double) ReceiptLayout.DEFAULT_TEXT_SIZE);
+        return Math.max(1, Math.min(8, scale));
+    }
+
+    private static EscPosConst.Justification toJustification(ReceiptLine.Alignment alignment) {
+        if (alignment == ReceiptLine.Alignment.CENTER) {
+            return EscPosConst.Justification.Center;
+        } else if (alignment == ReceiptLine.Alignment.RIGHT) {
+            return EscPosConst.Justification.Right;
+        }
+        return EscPosConst.Justification.Left_Default;
+    }
+}
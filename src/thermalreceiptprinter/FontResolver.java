@@ -0,0 +1,189 @@
+package thermalreceiptprinter;
+
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide font lookup for printing. The installed font families are
+ * enumerated once, and every requested family, style and size is resolved to
+ * a {@link Font} only the first time it is seen.
+ */
+public final class FontResolver {
+
+    public static final String FALLBACK_FAMILY = "Courier New";
+
+    private static final class Key {
+
+        private final String family;
+        private final int style;
+        private final int size;
+
+        private Key(String family, int style, int size) {
+            this.family = family;
+            this.style = style;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return style == other.style && size == other.size && family.equals(other.family);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(family, style, size);
+        }
+    }
+
+    // Lowercase family name -> installed family name, built on first use
+    private static final class AvailableFamilies {
+
+        private static final Map<String, String> INDEX = build();
+
+        private static Map<String, String> build() {
+            String[] names = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+            Map<String, String> index = new LinkedHashMap<>(names.length * 2);
+            for (String name : names) {
+                index.putIfAbsent(name.toLowerCase(Locale.ROOT), name);
+            }
+            return Collections.unmodifiableMap(index);
+        }
+    }
+
+    private static final Map<String, String> FAMILIES = new ConcurrentHashMap<>();
+    private static final Map<Key, Font> FONTS = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private FontResolver() {
+    }
+
+    /**
+     * Builds the index of installed families ahead of the first lookup.
+     */
+    public static void preload() {
+        AvailableFamilies.INDEX.size();
+    }
+
+    public static boolean isAvailable(String family) {
+        return family != null && AvailableFamilies.INDEX.containsKey(family.toLowerCase(Locale.ROOT));
+    }
+
+    public static Font getFont(String family, int style, int size) {
+        if (family == null || family.trim().isEmpty()) {
+            family = FALLBACK_FAMILY;
+        }
+
+        Key key = new Key(family, style, size);
+        Font font = FONTS.get(key);
+        if (font != null) {
+            HITS.increment();
+            return font;
+        }
+
+        MISSES.increment();
+        font = createFont(family, style, size);
+        Font existing = FONTS.putIfAbsent(key, font);
+        return existing != null ? existing : font;
+    }
+
+    /**
+     * Maps a requested family to an installed one: exact match first, then
+     * the closest partial match, then a well-known substitute.
+     */
+    public static String resolveFamily(String requestedFont) {
+        return FAMILIES.computeIfAbsent(requestedFont.toLowerCase(Locale.ROOT),
+                lowerFont -> findFamily(requestedFont, lowerFont));
+    }
+
+    private static Font createFont(String fontFamily, int fontStyle, int fontSize) {
+        try {
+            Font font = new Font(resolveFamily(fontFamily), fontStyle, fontSize);
+
+            if (!font.getFamily().equalsIgnoreCase("Dialog")) {
+                return font;
+            } else {
+                return new Font(FALLBACK_FAMILY, fontStyle, fontSize);
+            }
+
+        } catch (Exception e) {
+            System.err.println("Error creating font '" + fontFamily + "': " + e.getMessage());
+            return new Font(FALLBACK_FAMILY, fontStyle, fontSize);
+        }
+    }
+
+    private static String findFamily(String requestedFont, String lowerFont) {
+        Map<String, String> available = AvailableFamilies.INDEX;
+
+        String exact = available.get(lowerFont);
+        if (exact != null && isRenderable(exact)) {
+            return exact;
+        }
+
+        for (Map.Entry<String, String> entry : available.entrySet()) {
+            String lowerAvailable = entry.getKey();
+            if (lowerAvailable.contains(lowerFont) || lowerFont.contains(lowerAvailable)) {
+                if (isRenderable(entry.getValue())) {
+                    System.err.println("Using closest match: " + entry.getValue() + " for requested: " + requestedFont);
+                    return entry.getValue();
+                }
+            }
+        }
+
+        if (lowerFont.contains("arial") || lowerFont.contains("helvetica")) {
+            return "Arial";
+        } else if (lowerFont.contains("times")) {
+            return "Times New Roman";
+        } else if (lowerFont.contains("courier")) {
+            return "Courier New";
+        } else if (lowerFont.contains("verdana")) {
+            return "Verdana";
+        } else if (lowerFont.contains("tahoma")) {
+            return "Tahoma";
+        }
+
+        System.err.println("Font '" + requestedFont + "' not found or cannot render, using Arial");
+        return "Arial";
+    }
+
+    private static boolean isRenderable(String family) {
+        return !new Font(family, Font.PLAIN, 12).getFamily().equalsIgnoreCase("Dialog");
+    }
+
+    public static long getHitCount() {
+        return HITS.sum();
+    }
+
+    public static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    public static double getHitRate() {
+        long hits = HITS.sum();
+        long total = hits + MISSES.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public static int getCachedFontCount() {
+        return FONTS.size();
+    }
+
+    /**
+     * Drops all resolved fonts. The family index is kept.
+     */
+    public static void clear() {
+        FONTS.clear();
+        FAMILIES.clear();
+    }
+}
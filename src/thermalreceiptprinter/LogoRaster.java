@@ -0,0 +1,282 @@
+package thermalreceiptprinter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.imageio.ImageIO;
+
+/**
+ * Converts logos to 1-bit rasters for thermal printing and keeps the results,
+ * so scaling and dithering run once per logo setting instead of on every
+ * repaint or print call.
+ *
+ * A raster is either logo-sized ({@code canvasWidth <= 0}) or as wide as the
+ * print head with the logo already placed according to its alignment.
+ */
+public final class LogoRaster {
+
+    public static final double PRINTER_DPI = 203.0;
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final int[][] BAYER_8X8 = {
+        {0, 32, 8, 40, 2, 34, 10, 42},
+        {48, 16, 56, 24, 50, 18, 58, 26},
+        {12, 44, 4, 36, 14, 46, 6, 38},
+        {60, 28, 52, 20, 62, 30, 54, 22},
+        {3, 35, 11, 43, 1, 33, 9, 41},
+        {51, 19, 59, 27, 49, 17, 57, 25},
+        {15, 47, 7, 39, 13, 45, 5, 37},
+        {63, 31, 55, 23, 61, 29, 53, 21}
+    };
+
+    public enum Dithering {
+        FLOYD_STEINBERG("Floyd-Steinberg"),
+        ORDERED("Ordered"),
+        THRESHOLD("Threshold");
+
+        private final String label;
+
+        Dithering(String label) {
+            this.label = label;
+        }
+
+        public static Dithering fromName(String name) {
+            for (Dithering dithering : values()) {
+                if (dithering.name().equals(name) || dithering.label.equals(name)) {
+                    return dithering;
+                }
+            }
+            return FLOYD_STEINBERG;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final int logoWidth;
+        private final int canvasWidth;
+        private final String alignment;
+        private final Dithering dithering;
+
+        private Key(String path, int logoWidth, int canvasWidth, String alignment, Dithering dithering) {
+            this.path = path;
+            this.logoWidth = logoWidth;
+            this.canvasWidth = canvasWidth;
+            this.alignment = alignment;
+            this.dithering = dithering;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return logoWidth == other.logoWidth
+                    && canvasWidth == other.canvasWidth
+                    && dithering == other.dithering
+                    && Objects.equals(path, other.path)
+                    && Objects.equals(alignment, other.alignment);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, logoWidth, canvasWidth, alignment, dithering);
+        }
+    }
+
+    private static final class Entry {
+
+        // The raster is only valid for the image it was made from
+        private final BufferedImage source;
+        private final BufferedImage raster;
+
+        private Entry(BufferedImage source, BufferedImage raster) {
+            this.source = source;
+            this.raster = raster;
+        }
+    }
+
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private LogoRaster() {
+    }
+
+    /**
+     * Reads a logo image file; null if the format is not supported.
+     */
+    public static BufferedImage read(File file) throws IOException {
+        ReceiptEvents.LogoDecode event = new ReceiptEvents.LogoDecode();
+        event.begin();
+        BufferedImage image = ImageIO.read(file);
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.bytes = file.length();
+            event.width = image != null ? image.getWidth() : 0;
+            event.height = image != null ? image.getHeight() : 0;
+            event.commit();
+        }
+        return image;
+    }
+
+    public static int pointsToDots(double points) {
+        return (int) Math.round(points * PRINTER_DPI / 72.0);
+    }
+
+    /**
+     * Returns the logo as a 1-bit image {@code logoWidth} pixels wide.
+     */
+    public static BufferedImage get(ReceiptDocument.LogoBlock logo, int logoWidth) {
+        return get(logo, logoWidth, 0);
+    }
+
+    /**
+     * Returns the logo as a 1-bit image {@code logoWidth} pixels wide, placed
+     * on a white canvas {@code canvasWidth} pixels wide by its alignment.
+     */
+    public static BufferedImage get(ReceiptDocument.LogoBlock logo, int logoWidth, int canvasWidth) {
+        if (canvasWidth > 0) {
+            logoWidth = Math.min(logoWidth, canvasWidth);
+        }
+        String alignment = canvasWidth > 0 ? logo.getAlignment() : null;
+        Key key = new Key(logo.getPath(), logoWidth, canvasWidth, alignment, logo.getDithering());
+
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+            if (entry != null && entry.source == logo.getImage()) {
+                return entry.raster;
+            }
+        }
+
+        BufferedImage raster = render(logo.getImage(), logoWidth, canvasWidth, alignment, logo.getDithering());
+        synchronized (CACHE) {
+            CACHE.put(key, new Entry(logo.getImage(), raster));
+        }
+        return raster;
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    static BufferedImage render(BufferedImage source, int logoWidth, int canvasWidth, String alignment,
+            Dithering dithering) {
+        ReceiptEvents.LogoScale event = new ReceiptEvents.LogoScale();
+        event.begin();
+        logoWidth = Math.max(1, logoWidth);
+        int height = Math.max(1, (int) (source.getHeight() * ((double) logoWidth / source.getWidth())));
+        boolean[] black = dither(toGray(source, logoWidth, height), logoWidth, height, dithering);
+
+        int width = Math.max(canvasWidth, logoWidth);
+        int offset = 0;
+        if ("CENTER".equals(alignment)) {
+            offset = (width - logoWidth) / 2;
+        } else if ("RIGHT".equals(alignment)) {
+            offset = width - logoWidth;
+        }
+
+        BufferedImage raster = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        WritableRaster pixels = raster.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int lx = x - offset;
+                boolean isBlack = lx >= 0 && lx < logoWidth && black[y * logoWidth + lx];
+                pixels.setSample(x, y, 0, isBlack ? 0 : 1);
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.sourceWidth = source.getWidth();
+            event.sourceHeight = source.getHeight();
+            event.width = width;
+            event.height = height;
+            event.dithering = dithering.toString();
+            event.commit();
+        }
+        return raster;
+    }
+
+    private static int[] toGray(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = scaled.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        g2d.drawImage(source, 0, 0, width, height, null);
+        g2d.dispose();
+
+        int[] rgb = scaled.getRGB(0, 0, width, height, null, 0, width);
+        int[] gray = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            int r = (rgb[i] >> 16) & 0xFF;
+            int g = (rgb[i] >> 8) & 0xFF;
+            int b = rgb[i] & 0xFF;
+            gray[i] = (r * 299 + g * 587 + b * 114) / 1000;
+        }
+        return gray;
+    }
+
+    private static boolean[] dither(int[] gray, int width, int height, Dithering dithering) {
+        boolean[] black = new boolean[gray.length];
+
+        switch (dithering) {
+            case FLOYD_STEINBERG:
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int i = y * width + x;
+                        int value = gray[i];
+                        black[i] = value < 128;
+                        int error = value - (black[i] ? 0 : 255);
+
+                        if (x + 1 < width) {
+                            gray[i + 1] += error * 7 / 16;
+                        }
+                        if (y + 1 < height) {
+                            if (x > 0) {
+                                gray[i + width - 1] += error * 3 / 16;
+                            }
+                            gray[i + width] += error * 5 / 16;
+                            if (x + 1 < width) {
+                                gray[i + width + 1] += error / 16;
+                            }
+                        }
+                    }
+                }
+                break;
+            case ORDERED:
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int threshold = (BAYER_8X8[y & 7][x & 7] * 4) + 2;
+                        black[y * width + x] = gray[y * width + x] < threshold;
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < gray.length; i++) {
+                    black[i] = gray[i] < 128;
+                }
+                break;
+        }
+        return black;
+    }
+}
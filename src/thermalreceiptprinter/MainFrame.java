@@ -8,20 +8,14 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.print.*;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import javax.print.attribute.HashPrintRequestAttributeSet;
 import javax.print.attribute.PrintRequestAttributeSet;
-import javax.print.attribute.standard.Copies;
-import javax.print.attribute.standard.MediaSizeName;
-import javax.print.attribute.standard.PrintQuality;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.io.File;
-import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.awt.image.BufferedImage;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -34,6 +28,8 @@ public class MainFrame extends JFrame {
     private JButton printButton;
     private JButton clearButton;
     private JButton templatesButton;
+    private JButton printQueueButton;
+    private PrintQueueDialog printQueueDialog;
     private JButton boldButton;
     private JButton plainButton;
     private JSpinner fontSizeSpinner;
@@ -52,6 +48,8 @@ public class MainFrame extends JFrame {
     private final int RECEIPT_WIDTH = 45;
     private final int TSP100_CHAR_WIDTH = 45;
     private JTextPane previewTextPane;
+    private ReceiptPreviewRenderer previewRenderer;
+    private PreviewScheduler previewScheduler;
 
     // Logo support
     private BufferedImage logoImage = null;
@@ -61,12 +59,22 @@ public class MainFrame extends JFrame {
     private JLabel logoPreviewLabel;
     private JSpinner logoWidthSpinner;
     private JComboBox<String> logoAlignmentCombo;
+    private JComboBox<LogoRaster.Dithering> logoDitheringCombo;
+
+    // Template the editor was loaded from, so saving it back can detect
+    // changes made by another terminal in the meantime
+    private String loadedTemplateName = null;
+    private long loadedTemplateVersion = TemplateManager.NO_VERSION;
 
     public MainFrame() {
         initPreviewTextPane();
         initComponents();
         setupEventListeners();
         updatePreview();
+
+        // Also resumes jobs left in the queue by the last run
+        PrintQueue.getInstance().addListener(job -> SwingUtilities.invokeLater(this::updatePrintQueueButton));
+        updatePrintQueueButton();
         setIconImage(Toolkit.getDefaultToolkit().getImage(getClass().getResource("/images/logo2.png")));
     }
 
@@ -112,6 +120,20 @@ public class MainFrame extends JFrame {
         printMenuItem.setAccelerator(KeyStroke.getKeyStroke("ctrl P"));
         printMenuItem.addActionListener(e -> printReceipt());
 
+        JMenuItem escPosPrintMenuItem = new JMenuItem("Print to ESC/POS Printer...");
+        escPosPrintMenuItem.setAccelerator(KeyStroke.getKeyStroke("ctrl shift P"));
+        escPosPrintMenuItem.addActionListener(e -> printReceiptEscPos());
+
+        JMenuItem routesPrintMenuItem = new JMenuItem("Print to Routes...");
+        routesPrintMenuItem.setAccelerator(KeyStroke.getKeyStroke("ctrl alt P"));
+        routesPrintMenuItem.addActionListener(e -> printReceiptToRoutes());
+
+        JMenuItem printerRoutesMenuItem = new JMenuItem("Printer Routes...");
+        printerRoutesMenuItem.addActionListener(e -> openPrinterRoutes());
+
+        JMenuItem printQueueMenuItem = new JMenuItem("Print Queue...");
+        printQueueMenuItem.addActionListener(e -> openPrintQueue());
+
         JMenuItem exitMenuItem = new JMenuItem("Exit");
         exitMenuItem.addActionListener(e -> System.exit(0));
 
@@ -120,6 +142,10 @@ public class MainFrame extends JFrame {
         fileMenu.add(templatesMenuItem);
         fileMenu.addSeparator();
         fileMenu.add(printMenuItem);
+        fileMenu.add(escPosPrintMenuItem);
+        fileMenu.add(routesPrintMenuItem);
+        fileMenu.add(printQueueMenuItem);
+        fileMenu.add(printerRoutesMenuItem);
         fileMenu.addSeparator();
         fileMenu.add(exitMenuItem);
 
@@ -153,10 +179,14 @@ public class MainFrame extends JFrame {
         JMenuItem formatHelpItem = new JMenuItem("Formatting Help");
         formatHelpItem.addActionListener(e -> showFormattingHelp());
 
+        JMenuItem metricsMenuItem = new JMenuItem("Save Metrics...");
+        metricsMenuItem.addActionListener(e -> saveMetrics());
+
         JMenuItem aboutMenuItem = new JMenuItem("About");
         aboutMenuItem.addActionListener(e -> showAbout());
 
         helpMenu.add(formatHelpItem);
+        helpMenu.add(metricsMenuItem);
         helpMenu.addSeparator();
         helpMenu.add(aboutMenuItem);
 
@@ -285,6 +315,12 @@ public class MainFrame extends JFrame {
         logoAlignmentCombo.setEnabled(false);
         logoAlignmentCombo.addActionListener(e -> updatePreview());
 
+        logoDitheringCombo = new JComboBox<>(LogoRaster.Dithering.values());
+        logoDitheringCombo.setPreferredSize(new Dimension(110, 22));
+        logoDitheringCombo.setToolTipText("How the logo is converted to black and white for the printer");
+        logoDitheringCombo.setEnabled(false);
+        logoDitheringCombo.addActionListener(e -> updatePreview());
+
         logoPreviewLabel = new JLabel("No logo");
         logoPreviewLabel.setForeground(Color.GRAY);
         logoPreviewLabel.setFont(new Font("Arial", Font.ITALIC, 10));
@@ -297,6 +333,9 @@ public class MainFrame extends JFrame {
         controlsRow.add(Box.createHorizontalStrut(5));
         controlsRow.add(new JLabel("Align:"));
         controlsRow.add(logoAlignmentCombo);
+        controlsRow.add(Box.createHorizontalStrut(5));
+        controlsRow.add(new JLabel("Dither:"));
+        controlsRow.add(logoDitheringCombo);
         controlsRow.add(Box.createHorizontalStrut(10));
         controlsRow.add(logoPreviewLabel);
 
@@ -403,6 +442,7 @@ public class MainFrame extends JFrame {
         printButton = new JButton("Print Receipt");
         clearButton = new JButton("Clear");
         templatesButton = new JButton("Templates");
+        printQueueButton = new JButton("Print Queue");
 
         printButton.setBackground(new Color(52, 152, 219));
         printButton.setForeground(Color.WHITE);
@@ -421,6 +461,7 @@ public class MainFrame extends JFrame {
         panel.add(printButton);
         panel.add(clearButton);
         panel.add(templatesButton);
+        panel.add(printQueueButton);
 
         return panel;
     }
@@ -438,6 +479,11 @@ public class MainFrame extends JFrame {
         previewTextPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         initPreviewTextPane();
+        previewRenderer = new ReceiptPreviewRenderer(previewTextPane);
+        previewScheduler = new PreviewScheduler(previewRenderer, this::preparePreviewSnapshot, () -> {
+            updateBoldButton();
+            updateFormatButtons();
+        });
 
         JScrollPane previewScroll = new JScrollPane(previewTextPane);
         previewScroll.getVerticalScrollBar().setUnitIncrement(16);
@@ -485,7 +531,7 @@ public class MainFrame extends JFrame {
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
             try {
-                logoImage = ImageIO.read(selectedFile);
+                logoImage = LogoRaster.read(selectedFile);
                 logoPath = selectedFile.getAbsolutePath();
 
                 logoPreviewLabel.setText(selectedFile.getName());
@@ -494,6 +540,7 @@ public class MainFrame extends JFrame {
                 removeLogoButton.setEnabled(true);
                 logoWidthSpinner.setEnabled(true);
                 logoAlignmentCombo.setEnabled(true);
+                logoDitheringCombo.setEnabled(true);
 
                 updatePreview();
 
@@ -521,13 +568,13 @@ public class MainFrame extends JFrame {
         removeLogoButton.setEnabled(false);
         logoWidthSpinner.setEnabled(false);
         logoAlignmentCombo.setEnabled(false);
+        logoDitheringCombo.setEnabled(false);
 
         updatePreview();
     }
 
     private void setupEventListeners() {
-        // Replace the existing document listener with this:
-        setupAutoWrapListener();  // FIX #3: Use new auto-wrap listener
+        setupDocumentListener();
 
         receiptTextPane.addCaretListener(e -> updateBoldButton());
 
@@ -544,6 +591,7 @@ public class MainFrame extends JFrame {
         printButton.addActionListener(e -> printReceipt());
         clearButton.addActionListener(e -> clearReceipt());
         templatesButton.addActionListener(e -> openTemplateManager());
+        printQueueButton.addActionListener(e -> openPrintQueue());
 
         receiptTextPane.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_B, KeyEvent.CTRL_DOWN_MASK), "bold");
         receiptTextPane.getActionMap().put("bold", new AbstractAction() {
@@ -592,11 +640,10 @@ public class MainFrame extends JFrame {
                 // Draw logo at the top if available
                 if (logoImage != null) {
                     Graphics2D g2d = (Graphics2D) g.create();
-                    g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 
+                    // Show the logo as the printer will see it, dithered to 1-bit
                     int logoWidth = (Integer) logoWidthSpinner.getValue();
-                    int logoHeight = (int) (logoImage.getHeight() * ((double) logoWidth / logoImage.getWidth()));
+                    BufferedImage raster = LogoRaster.get(createLogoBlock(), logoWidth);
 
                     int x = 10; // Default left
                     String logoAlign = (String) logoAlignmentCombo.getSelectedItem();
@@ -608,7 +655,7 @@ public class MainFrame extends JFrame {
                         x = 10 + componentWidth - logoWidth;
                     }
 
-                    g2d.drawImage(logoImage, x, 10, logoWidth, logoHeight, null);
+                    g2d.drawImage(raster, x, 10, null);
                     g2d.dispose();
                 }
             }
@@ -619,93 +666,30 @@ public class MainFrame extends JFrame {
         previewTextPane.setFont(new Font("Courier New", Font.PLAIN, (int) (fontSize * 1.15)));
     }
 
-    private void setupAutoWrapListener() {
+    // Long lines are soft-wrapped by the layout, so typing past the margin
+    // never changes the document itself
+    private void setupDocumentListener() {
         receiptTextPane.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
-                SwingUtilities.invokeLater(() -> checkAndWrapText(e));
+                previewRenderer.paragraphsChanged(e);
+                previewScheduler.schedule();
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
-                updatePreview();
-                updateBoldButton();
-                updateFormatButtons();
+                previewRenderer.paragraphsChanged(e);
+                previewScheduler.schedule();
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
-                updatePreview();
-                updateBoldButton();
-                updateFormatButtons();
+                previewRenderer.paragraphsChanged(e);
+                previewScheduler.schedule();
             }
         });
     }
 
-    private void checkAndWrapText(DocumentEvent e) {
-        try {
-            StyledDocument doc = receiptTextPane.getStyledDocument();
-            int offset = e.getOffset();
-
-            // Find the current line
-            Element root = doc.getDefaultRootElement();
-            int lineIndex = root.getElementIndex(offset);
-            Element line = root.getElement(lineIndex);
-
-            int lineStart = line.getStartOffset();
-            int lineEnd = line.getEndOffset();
-            String lineText = doc.getText(lineStart, lineEnd - lineStart);
-
-            // Remove formatting tags to count actual characters
-            String cleanText = lineText.replaceAll("\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=\\d+\\]|\\[/SIZE\\]|\\[FONT=[^\\]]+\\]|\\[/FONT\\]", "");
-
-            // Check if line exceeds 45 characters (excluding newline)
-            if (cleanText.length() > 45 && !cleanText.trim().isEmpty()) {
-                // Find the last space within 45 characters
-                int wrapPosition = 45;
-                for (int i = 45; i >= 0; i--) {
-                    if (i < cleanText.length() && cleanText.charAt(i) == ' ') {
-                        wrapPosition = i;
-                        break;
-                    }
-                }
-
-                // If no space found, wrap at exactly 45 characters
-                if (wrapPosition == 45 || cleanText.charAt(wrapPosition) != ' ') {
-                    wrapPosition = Math.min(45, cleanText.length());
-                }
-
-                // Insert newline at wrap position if not already at end of line
-                if (wrapPosition < cleanText.length() - 1) {
-                    int actualPosition = lineStart + wrapPosition;
-
-                    // Get ALL formatting attributes from the character BEFORE the wrap position
-                    AttributeSet attrs = doc.getCharacterElement(Math.max(0, actualPosition - 1)).getAttributes();
-
-                    // Create a copy of the attributes to preserve them
-                    SimpleAttributeSet newLineAttrs = new SimpleAttributeSet(attrs);
-
-                    // Check if there's already a newline
-                    if (!cleanText.substring(wrapPosition, wrapPosition + 1).equals("\n")) {
-                        doc.insertString(actualPosition, "\n", newLineAttrs);
-
-                        // IMPORTANT: Set the input attributes so the next line continues with the same formatting
-                        MutableAttributeSet inputAttrs = receiptTextPane.getInputAttributes();
-                        inputAttrs.removeAttributes(inputAttrs);
-                        inputAttrs.addAttributes(attrs);
-                    }
-                }
-            }
-
-            updatePreview();
-            updateBoldButton();
-            updateFormatButtons();
-
-        } catch (BadLocationException ex) {
-            // Silently handle - text is being modified
-        }
-    }
-
     private void updatePreviewFont() {
         Font baseFont = new Font("Courier New", Font.PLAIN, fontSize);
         Font previewFont = baseFont.deriveFont((float) (fontSize * 1.25));
@@ -715,12 +699,6 @@ public class MainFrame extends JFrame {
     private class EnhancedFontComboBoxRenderer extends DefaultListCellRenderer {
 
         private static final int DISPLAY_FONT_SIZE = 14;
-        private final Set<String> availableFonts;
-
-        public EnhancedFontComboBoxRenderer() {
-            GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-            availableFonts = new HashSet<>(Arrays.asList(ge.getAvailableFontFamilyNames()));
-        }
 
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value,
@@ -731,12 +709,11 @@ public class MainFrame extends JFrame {
             if (value != null) {
                 String fontName = value.toString();
 
-                boolean fontAvailable = availableFonts.contains(fontName)
-                        || availableFonts.stream().anyMatch(f -> f.equalsIgnoreCase(fontName));
+                boolean fontAvailable = FontResolver.isAvailable(fontName);
 
                 if (fontAvailable) {
                     try {
-                        Font displayFont = new Font(fontName, Font.PLAIN, DISPLAY_FONT_SIZE);
+                        Font displayFont = FontResolver.getFont(fontName, Font.PLAIN, DISPLAY_FONT_SIZE);
                         setFont(displayFont);
                         setText(fontName);
                         setForeground(isSelected ? Color.WHITE : Color.BLACK);
@@ -968,196 +945,132 @@ public class MainFrame extends JFrame {
     }
 
     private String getFormattedText() {
+        return getFormattedText(0, receiptTextPane.getStyledDocument().getLength());
+    }
+
+    private String getFormattedText(int start, int end) {
+        long startNanos = System.nanoTime();
         StyledDocument doc = receiptTextPane.getStyledDocument();
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = new StringBuilder(end - start + 16);
 
         try {
-            String text = doc.getText(0, doc.getLength());
-
-            boolean inBold = false;
-            int currentFontSize = 14;
-            String currentFont = "Courier New";
-
-            for (int i = 0; i < text.length(); i++) {
-                char currentChar = text.charAt(i);
-                AttributeSet attrs = doc.getCharacterElement(i).getAttributes();
-
-                boolean charIsBold = StyleConstants.isBold(attrs);
-                int charFontSize = StyleConstants.getFontSize(attrs);
-                String charFontFamily = StyleConstants.getFontFamily(attrs);
-
-                if (charFontFamily == null || charFontFamily.trim().isEmpty()) {
-                    charFontFamily = "Courier New";
-                }
-
-                // Handle newline character
-                if (currentChar == '\n') {
-                    // Close tags before newline
-                    if (inBold) {
-                        result.append("[/BOLD]");
+            String text = doc.getText(start, end - start);
+            FormatState state = new FormatState();
+
+            // Walk the leaf elements so tags are only emitted at run boundaries
+            int pos = start;
+            while (pos < end) {
+                Element run = doc.getCharacterElement(pos);
+                AttributeSet attrs = run.getAttributes();
+                int i = pos - start;
+                int runEnd = Math.min(run.getEndOffset(), end) - start;
+
+                while (i < runEnd) {
+                    int newline = text.indexOf('\n', i);
+                    int segmentEnd = newline >= 0 && newline < runEnd ? newline : runEnd;
+
+                    if (segmentEnd > i) {
+                        state.switchTo(attrs, result);
+                        result.append(text, i, segmentEnd);
                     }
-                    if (currentFontSize != 14) {
-                        result.append("[/SIZE]");
-                    }
-                    if (!currentFont.equals("Courier New")) {
-                        result.append("[/FONT]");
+                    if (segmentEnd == runEnd) {
+                        break;
                     }
 
+                    // Close tags before newline and reopen them for the next character
+                    state.close(result);
                     result.append('\n');
-
-                    // Reopen tags after newline if next character has formatting
-                    if (i + 1 < text.length()) {
-                        AttributeSet nextAttrs = doc.getCharacterElement(i + 1).getAttributes();
-                        boolean nextIsBold = StyleConstants.isBold(nextAttrs);
-                        int nextFontSize = StyleConstants.getFontSize(nextAttrs);
-                        String nextFontFamily = StyleConstants.getFontFamily(nextAttrs);
-
-                        if (nextFontFamily == null || nextFontFamily.trim().isEmpty()) {
-                            nextFontFamily = "Courier New";
-                        }
-
-                        if (nextIsBold) {
-                            result.append("[BOLD]");
-                            inBold = true;
-                        } else {
-                            inBold = false;
-                        }
-
-                        if (nextFontSize != 14) {
-                            result.append("[SIZE=").append(nextFontSize).append("]");
-                            currentFontSize = nextFontSize;
-                        } else {
-                            currentFontSize = 14;
-                        }
-
-                        if (!nextFontFamily.equals("Courier New")) {
-                            result.append("[FONT=").append(nextFontFamily).append("]");
-                            currentFont = nextFontFamily;
-                        } else {
-                            currentFont = "Courier New";
-                        }
-                    }
-                    continue;
-                }
-
-                // Handle bold changes
-                if (charIsBold != inBold) {
-                    if (charIsBold) {
-                        result.append("[BOLD]");
-                        inBold = true;
-                    } else {
-                        result.append("[/BOLD]");
-                        inBold = false;
-                    }
-                }
-
-                // Handle font size changes
-                if (charFontSize != currentFontSize) {
-                    if (currentFontSize != 14) {
-                        result.append("[/SIZE]");
-                    }
-                    if (charFontSize != 14) {
-                        result.append("[SIZE=").append(charFontSize).append("]");
+                    if (segmentEnd + 1 < text.length()) {
+                        AttributeSet nextAttrs = segmentEnd + 1 < runEnd
+                                ? attrs : doc.getCharacterElement(start + segmentEnd + 1).getAttributes();
+                        state.reopen(nextAttrs, result);
                     }
-                    currentFontSize = charFontSize;
+                    i = segmentEnd + 1;
                 }
 
-                // Handle font family changes
-                if (!charFontFamily.equals(currentFont)) {
-                    if (!currentFont.equals("Courier New")) {
-                        result.append("[/FONT]");
-                    }
-                    if (!charFontFamily.equals("Courier New")) {
-                        result.append("[FONT=").append(charFontFamily).append("]");
-                    }
-                    currentFont = charFontFamily;
-                }
-
-                result.append(currentChar);
+                pos = start + runEnd;
             }
 
             // Close any remaining open tags
-            if (inBold) {
-                result.append("[/BOLD]");
-            }
-            if (currentFontSize != 14) {
-                result.append("[/SIZE]");
-            }
-            if (!currentFont.equals("Courier New")) {
-                result.append("[/FONT]");
-            }
+            state.close(result);
 
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
 
+        ReceiptMetrics.SERIALIZATION.recordSince(startNanos);
         return result.toString();
     }
 
-    private String formatForTSP100(String input) {
-        if (input.isEmpty()) {
-            return "";
+    private static final class FormatState {
+
+        private boolean bold = false;
+        private int fontSize = 14;
+        private String font = "Courier New";
+
+        private static String fontFamily(AttributeSet attrs) {
+            String family = StyleConstants.getFontFamily(attrs);
+            return family == null || family.trim().isEmpty() ? "Courier New" : family;
         }
 
-        StringBuilder formatted = new StringBuilder();
-        String[] lines = input.split("\n");
+        void switchTo(AttributeSet attrs, StringBuilder result) {
+            boolean runIsBold = StyleConstants.isBold(attrs);
+            int runFontSize = StyleConstants.getFontSize(attrs);
+            String runFont = fontFamily(attrs);
 
-        for (String line : lines) {
-            if (line.trim().isEmpty()) {
-                formatted.append("\n");
-                continue;
+            if (runIsBold != bold) {
+                result.append(runIsBold ? "[BOLD]" : "[/BOLD]");
+                bold = runIsBold;
             }
 
-            if (line.startsWith("[BOLD]") || line.startsWith("[/BOLD]")
-                    || line.startsWith("[SIZE=") || line.startsWith("[/SIZE]")
-                    || line.startsWith("[FONT=") || line.startsWith("[/FONT]")) {
-                formatted.append(line).append("\n");
-                continue;
+            if (runFontSize != fontSize) {
+                if (fontSize != 14) {
+                    result.append("[/SIZE]");
+                }
+                if (runFontSize != 14) {
+                    result.append("[SIZE=").append(runFontSize).append("]");
+                }
+                fontSize = runFontSize;
             }
 
-            if (line.contains("|")) {
-                String[] parts = line.split("\\|");
-                StringBuilder tableLine = new StringBuilder();
-
-                for (int i = 0; i < parts.length; i++) {
-                    String part = parts[i].trim();
-                    int colWidth = (i == 0) ? 20 : 10;
-
-                    if (part.length() > colWidth) {
-                        part = part.substring(0, colWidth);
-                    } else {
-                        part = String.format("%-" + colWidth + "s", part);
-                    }
-
-                    tableLine.append(part);
-                    if (i < parts.length - 1) {
-                        tableLine.append(" ");
-                    }
+            if (!runFont.equals(font)) {
+                if (!font.equals("Courier New")) {
+                    result.append("[/FONT]");
                 }
-
-                line = tableLine.toString();
+                if (!runFont.equals("Courier New")) {
+                    result.append("[FONT=").append(runFont).append("]");
+                }
+                font = runFont;
             }
+        }
 
-            if (line.startsWith("[CENTER]")) {
-                line = centerTextTSP100(line.substring(8));
-            } else if (line.startsWith("[RIGHT]")) {
-                line = rightAlignTextTSP100(line.substring(7));
-            } else if (line.startsWith("[LINE]")) {
-                line = createLineTSP100();
-            } else if ("CENTER".equals(alignment)) {
-                line = centerTextTSP100(line);
-            } else if ("RIGHT".equals(alignment)) {
-                line = rightAlignTextTSP100(line);
+        void close(StringBuilder result) {
+            if (bold) {
+                result.append("[/BOLD]");
+            }
+            if (fontSize != 14) {
+                result.append("[/SIZE]");
+            }
+            if (!font.equals("Courier New")) {
+                result.append("[/FONT]");
             }
-
-            formatted.append(line).append("\n");
         }
 
-        return formatted.toString();
-    }
+        void reopen(AttributeSet attrs, StringBuilder result) {
+            bold = StyleConstants.isBold(attrs);
+            fontSize = StyleConstants.getFontSize(attrs);
+            font = fontFamily(attrs);
 
-    private int getVisibleTextLength(String text) {
-        return text.replaceAll("\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=\\d+\\]|\\[/SIZE\\]|\\[FONT=[^\\]]+\\]|\\[/FONT\\]", "").length();
+            if (bold) {
+                result.append("[BOLD]");
+            }
+            if (fontSize != 14) {
+                result.append("[SIZE=").append(fontSize).append("]");
+            }
+            if (!font.equals("Courier New")) {
+                result.append("[FONT=").append(font).append("]");
+            }
+        }
     }
 
     private int getSelectionFontSize() {
@@ -1173,89 +1086,6 @@ public class MainFrame extends JFrame {
         }
     }
 
-    private String truncateWithFormatting(String text, int maxLength) {
-        StringBuilder result = new StringBuilder();
-        int visibleCharCount = 0;
-        boolean inBold = false;
-        boolean inSize = false;
-        boolean inFont = false;
-
-        for (int i = 0; i < text.length() && visibleCharCount < maxLength; i++) {
-            if (text.startsWith("[BOLD]", i)) {
-                result.append("[BOLD]");
-                inBold = true;
-                i += 5;
-            } else if (text.startsWith("[/BOLD]", i)) {
-                result.append("[/BOLD]");
-                inBold = false;
-                i += 6;
-            } else if (text.startsWith("[SIZE=", i)) {
-                int endIndex = text.indexOf("]", i);
-                if (endIndex != -1) {
-                    result.append(text.substring(i, endIndex + 1));
-                    inSize = true;
-                    i = endIndex;
-                } else {
-                    result.append(text.charAt(i));
-                }
-            } else if (text.startsWith("[/SIZE]", i)) {
-                result.append("[/SIZE]");
-                inSize = false;
-                i += 6;
-            } else if (text.startsWith("[FONT=", i)) {
-                int endIndex = text.indexOf("]", i);
-                if (endIndex != -1) {
-                    result.append(text.substring(i, endIndex + 1));
-                    inFont = true;
-                    i = endIndex;
-                } else {
-                    result.append(text.charAt(i));
-                }
-            } else if (text.startsWith("[/FONT]", i)) {
-                result.append("[/FONT]");
-                inFont = false;
-                i += 6;
-            } else {
-                result.append(text.charAt(i));
-                visibleCharCount++;
-            }
-        }
-
-        if (inBold) {
-            result.append("[/BOLD]");
-        }
-        if (inSize) {
-            result.append("[/SIZE]");
-        }
-        if (inFont) {
-            result.append("[/FONT]");
-        }
-
-        return result.toString();
-    }
-
-    private String centerTextTSP100(String text) {
-        int cleanTextLength = getVisibleTextLength(text);
-        if (cleanTextLength >= TSP100_CHAR_WIDTH) {
-            return truncateWithFormatting(text, TSP100_CHAR_WIDTH);
-        }
-        int padding = (TSP100_CHAR_WIDTH - cleanTextLength) / 2;
-        return " ".repeat(Math.max(0, padding)) + text;
-    }
-
-    private String rightAlignTextTSP100(String text) {
-        int cleanTextLength = getVisibleTextLength(text);
-        if (cleanTextLength >= TSP100_CHAR_WIDTH) {
-            return truncateWithFormatting(text, TSP100_CHAR_WIDTH);
-        }
-        int padding = TSP100_CHAR_WIDTH - cleanTextLength;
-        return " ".repeat(Math.max(0, padding)) + text;
-    }
-
-    private String createLineTSP100() {
-        return "-".repeat(TSP100_CHAR_WIDTH);
-    }
-
     private void showFormattingHelp() {
         String helpText = """
         =============================================
@@ -1296,7 +1126,8 @@ public class MainFrame extends JFrame {
         RECEIPT WIDTH
         =============
         • Standard 80mm thermal paper: 45 characters
-        • Wider receipts may need adjustment
+        • Longer lines wrap onto the next line when printed;
+          larger [SIZE] text fits fewer characters per line
         
         ===========
         KEY COMMANDS
@@ -1304,6 +1135,7 @@ public class MainFrame extends JFrame {
         Ctrl+N - New receipt
         Ctrl+T - Templates
         Ctrl+P - Print
+        Ctrl+Shift+P - Print to ESC/POS printer
         Ctrl+B - Bold text
         Ctrl+U - Plain text
         Ctrl+L - Add logo
@@ -1353,85 +1185,60 @@ public class MainFrame extends JFrame {
         JOptionPane.showMessageDialog(this, aboutText, "About", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private void updatePreview() {
-        updatePreviewFont();
-
-        String formattedText = getFormattedText();
-        String processedText = formatForTSP100(formattedText);
-
-        StyledDocument doc = previewTextPane.getStyledDocument();
-        try {
-            doc.remove(0, doc.getLength());
-
-            // Add spacing for logo if present - REDUCED GAP
-            if (logoImage != null) {
-                int logoWidth = (Integer) logoWidthSpinner.getValue();
-                int logoHeight = (int) (logoImage.getHeight() * ((double) logoWidth / logoImage.getWidth()));
-                // Changed: Use smaller multiplier and subtract padding
-                int linesForLogo = (logoHeight / 20) + 0; // Reduced from /15 +2 to /18 +1
+    private void saveMetrics() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Metrics");
+        fileChooser.setSelectedFile(new File("receipt-metrics.txt"));
 
-                for (int i = 0; i < linesForLogo; i++) {
-                    doc.insertString(doc.getLength(), "\n", null);
-                }
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try {
+                ReceiptMetrics.dumpToFile(fileChooser.getSelectedFile().toPath());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Failed to save metrics: " + e.getMessage(),
+                        "Save Error",
+                        JOptionPane.ERROR_MESSAGE);
             }
+        }
+    }
 
-            Pattern pattern = Pattern.compile("(\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=(\\d+)\\]|\\[/SIZE\\]|\\[FONT=([^\\]]+)\\]|\\[/FONT\\])");
-            Matcher matcher = pattern.matcher(processedText);
-
-            int lastIndex = 0;
-            SimpleAttributeSet attrs = new SimpleAttributeSet();
-            StyleConstants.setFontFamily(attrs, "Courier New");
-            StyleConstants.setFontSize(attrs, (int) (fontSize * 1.25));
-            StyleConstants.setBold(attrs, false);
-
-            while (matcher.find()) {
-                if (matcher.start() > lastIndex) {
-                    String text = processedText.substring(lastIndex, matcher.start());
-                    doc.insertString(doc.getLength(), text, attrs);
-                }
+    private void updatePreview() {
+        updatePreviewFont();
+        previewRenderer.invalidate();
+        previewScheduler.renderNow();
+    }
 
-                String tag = matcher.group(0);
-                if (tag.equals("[BOLD]")) {
-                    StyleConstants.setBold(attrs, true);
-                } else if (tag.equals("[/BOLD]")) {
-                    StyleConstants.setBold(attrs, false);
-                } else if (tag.startsWith("[SIZE=")) {
-                    try {
-                        int size = Integer.parseInt(matcher.group(2));
-                        StyleConstants.setFontSize(attrs, (int) (size * 1.25));
-                    } catch (NumberFormatException e) {
-                        StyleConstants.setFontSize(attrs, (int) (fontSize * 1.25));
-                    }
-                } else if (tag.equals("[/SIZE]")) {
-                    StyleConstants.setFontSize(attrs, (int) (fontSize * 1.25));
-                } else if (tag.startsWith("[FONT=")) {
-                    StyleConstants.setFontFamily(attrs, matcher.group(3));
-                } else if (tag.equals("[/FONT]")) {
-                    StyleConstants.setFontFamily(attrs, "Courier New");
-                }
+    private ReceiptPreviewRenderer.Snapshot preparePreviewSnapshot() {
+        int linesForLogo = 0;
 
-                lastIndex = matcher.end();
-            }
+        // Add spacing for logo if present - REDUCED GAP
+        if (logoImage != null) {
+            int logoWidth = (Integer) logoWidthSpinner.getValue();
+            int logoHeight = (int) (logoImage.getHeight() * ((double) logoWidth / logoImage.getWidth()));
+            // Changed: Use smaller multiplier and subtract padding
+            linesForLogo = (logoHeight / 20) + 0; // Reduced from /15 +2 to /18 +1
+        }
 
-            if (lastIndex < processedText.length()) {
-                doc.insertString(doc.getLength(), processedText.substring(lastIndex), attrs);
-            }
+        return previewRenderer.prepare(receiptTextPane.getStyledDocument(), this::getFormattedText,
+                createReceiptLayout(), fontSize, lineSpacing, linesForLogo);
+    }
 
-            int length = doc.getLength();
-            for (int i = 0; i < length;) {
-                Element elem = doc.getParagraphElement(i);
-                SimpleAttributeSet paraAttrs = new SimpleAttributeSet();
-                StyleConstants.setLineSpacing(paraAttrs, lineSpacing - 1.0f);
-                doc.setParagraphAttributes(elem.getStartOffset(),
-                        elem.getEndOffset() - elem.getStartOffset(),
-                        paraAttrs, false);
-                i = elem.getEndOffset();
-            }
+    private ReceiptDocument buildReceiptDocument(String markup) {
+        return ReceiptDocument.parse(markup, createLogoBlock());
+    }
 
-            previewTextPane.repaint();
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+    private ReceiptDocument.LogoBlock createLogoBlock() {
+        if (logoImage == null) {
+            return null;
         }
+        return new ReceiptDocument.LogoBlock(logoImage, logoPath,
+                (Integer) logoWidthSpinner.getValue(),
+                (String) logoAlignmentCombo.getSelectedItem(),
+                (LogoRaster.Dithering) logoDitheringCombo.getSelectedItem());
+    }
+
+    private ReceiptLayout createReceiptLayout() {
+        return new ReceiptLayout(TSP100_CHAR_WIDTH, alignment);
     }
 
     private void clearReceipt() {
@@ -1478,9 +1285,10 @@ public class MainFrame extends JFrame {
 
     private void printReceipt() {
         try {
-            String content = getFormattedText();
+            String markup = getFormattedText();
+            ReceiptDocument receipt = buildReceiptDocument(markup);
 
-            if (content.trim().isEmpty() && logoImage == null) {
+            if (receipt.isEmpty()) {
                 JOptionPane.showMessageDialog(this,
                         "No content to print. Please enter some text or add a logo first.",
                         "Nothing to Print",
@@ -1488,45 +1296,25 @@ public class MainFrame extends JFrame {
                 return;
             }
 
-            PrinterJob job = PrinterJob.getPrinterJob();
-
-            PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
-            attributes.add(new Copies(1));
-            attributes.add(MediaSizeName.INVOICE);
-            attributes.add(PrintQuality.HIGH);
-
-            // Set margins using MediaPrintableArea (in millimeters)
-            // For 80mm paper (Invoice size is 5.5" x 8.5" or ~140mm x 216mm)
-            // 0.5 inch = 12.7 mm
-            float leftMarginMM = 12.7f;   // 0.5 inch in mm
-            float rightMarginMM = 12.7f;  // 0.5 inch in mm
-            float topMarginMM = 25.4f;    // 1.0 inch in mm (default)
-            float bottomMarginMM = 25.4f; // 1.0 inch in mm (default)
-
-            // Calculate printable area dimensions
-            // Invoice paper width is approximately 140mm
-            float paperWidthMM = 140f;
-            float paperHeightMM = 216f;
-
-            float printableWidthMM = paperWidthMM - leftMarginMM - rightMarginMM;
-            float printableHeightMM = paperHeightMM - topMarginMM - bottomMarginMM;
-
-            attributes.add(new javax.print.attribute.standard.MediaPrintableArea(
-                    leftMarginMM,
-                    topMarginMM,
-                    printableWidthMM,
-                    printableHeightMM,
-                    javax.print.attribute.standard.MediaPrintableArea.MM));
+            // Configured routes replace the printer dialog, so the cashier can carry on
+            List<PrinterRegistry.Route> defaultRoutes = PrinterRegistry.getInstance().getDefaultRoutes();
+            if (!defaultRoutes.isEmpty()) {
+                dispatchToRoutes(defaultRoutes, markup);
+                return;
+            }
 
-            fontSize = (Integer) fontSizeSpinner.getValue();
-            job.setPrintable(new ReceiptPrintable(content, fontSize, alignment, logoImage,
-                    (Integer) logoWidthSpinner.getValue(),
-                    (String) logoAlignmentCombo.getSelectedItem()));
+            PrinterJob job = PrinterJob.getPrinterJob();
+            PrintRequestAttributeSet attributes = ReceiptPrintable.createPrintAttributes();
 
+            // Only the printer and its settings are chosen here; the queue
+            // prints in the background
             if (job.printDialog(attributes)) {
-                job.print(attributes);
-                JOptionPane.showMessageDialog(this, "Receipt sent to printer!", "Print Success",
-                        JOptionPane.INFORMATION_MESSAGE);
+                if (job.getPrintService() == null) {
+                    throw new PrinterException("No printer selected");
+                }
+                fontSize = (Integer) fontSizeSpinner.getValue();
+                submitPrintJob(PrintQueue.Target.SYSTEM, job.getPrintService().getName(), markup,
+                        getPrintFontFamily(), attributes);
             }
         } catch (PrinterException e) {
             JOptionPane.showMessageDialog(this, "Print failed: " + e.getMessage(), "Print Error",
@@ -1534,6 +1322,142 @@ public class MainFrame extends JFrame {
         }
     }
 
+    private void printReceiptToRoutes() {
+        String markup = getFormattedText();
+        if (buildReceiptDocument(markup).isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "No content to print. Please enter some text or add a logo first.",
+                    "Nothing to Print",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        List<PrinterRegistry.Route> routes = PrinterRegistry.getInstance().getRoutes();
+        if (routes.isEmpty()) {
+            int result = JOptionPane.showConfirmDialog(this,
+                    "No printer routes are set up yet.\nDo you want to set them up now?",
+                    "Print to Routes",
+                    JOptionPane.YES_NO_OPTION,
+                    JOptionPane.QUESTION_MESSAGE);
+            if (result == JOptionPane.YES_OPTION) {
+                openPrinterRoutes();
+            }
+            return;
+        }
+
+        JPanel panel = new JPanel(new GridLayout(0, 1, 0, 4));
+        panel.add(new JLabel("Print this receipt on:"));
+        List<JCheckBox> checkBoxes = new ArrayList<>();
+        for (PrinterRegistry.Route route : routes) {
+            JCheckBox checkBox = new JCheckBox(route.getName() + " - " + route.getPrinterName(),
+                    route.isPrintByDefault());
+            checkBoxes.add(checkBox);
+            panel.add(checkBox);
+        }
+
+        int result = JOptionPane.showConfirmDialog(this, panel, "Print to Routes",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+
+        List<PrinterRegistry.Route> selected = new ArrayList<>();
+        for (int i = 0; i < routes.size(); i++) {
+            if (checkBoxes.get(i).isSelected()) {
+                selected.add(routes.get(i));
+            }
+        }
+        dispatchToRoutes(selected, markup);
+    }
+
+    private void dispatchToRoutes(List<PrinterRegistry.Route> routes, String markup) {
+        fontSize = (Integer) fontSizeSpinner.getValue();
+        PrinterRegistry.getInstance().dispatch(routes, markup, createLogoBlock(), alignment,
+                fontSize, lineSpacing, getPrintFontFamily());
+    }
+
+    private String getPrintFontFamily() {
+        return isok && allSetFontStyle != null ? allSetFontStyle : "Courier New";
+    }
+
+    private void openPrinterRoutes() {
+        new PrinterRoutesDialog(this, PrinterRegistry.getInstance()).setVisible(true);
+    }
+
+    /**
+     * @param attributes the print dialog's choices, or null
+     */
+    private void submitPrintJob(PrintQueue.Target target, String printerName, String markup,
+            String printFontFamily, PrintRequestAttributeSet attributes) {
+        PrintQueue.Job job = new PrintQueue.Job(target, printerName, markup, createLogoBlock(),
+                TSP100_CHAR_WIDTH, alignment, fontSize, lineSpacing, printFontFamily);
+        if (attributes != null) {
+            job.setPrintAttributes(attributes);
+        }
+        PrintQueue.getInstance().submit(job);
+    }
+
+    private void openPrintQueue() {
+        if (printQueueDialog == null || !printQueueDialog.isDisplayable()) {
+            printQueueDialog = new PrintQueueDialog(this, PrintQueue.getInstance());
+        }
+        printQueueDialog.setVisible(true);
+        printQueueDialog.toFront();
+    }
+
+    private void updatePrintQueueButton() {
+        int pending = 0;
+        int failed = 0;
+        for (PrintQueue.Job job : PrintQueue.getInstance().getJobs()) {
+            if (job.getStatus() == PrintQueue.Status.FAILED) {
+                failed++;
+            } else if (!job.getStatus().isFinished()) {
+                pending++;
+            }
+        }
+
+        String text = "Print Queue";
+        if (failed > 0) {
+            text += " (" + failed + " failed)";
+        } else if (pending > 0) {
+            text += " (" + pending + ")";
+        }
+        printQueueButton.setText(text);
+        printQueueButton.setForeground(failed > 0 ? new Color(231, 76, 60) : UIManager.getColor("Button.foreground"));
+    }
+
+    private void printReceiptEscPos() {
+        String markup = getFormattedText();
+        if (buildReceiptDocument(markup).isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "No content to print. Please enter some text or add a logo first.",
+                    "Nothing to Print",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String[] printers = EscPosReceiptPrinter.getPrinterNames();
+        if (printers.length == 0) {
+            JOptionPane.showMessageDialog(this, "No printers are installed.", "Print Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        String printer = (String) JOptionPane.showInputDialog(this,
+                "Select the ESC/POS receipt printer:",
+                "ESC/POS Print",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                printers,
+                printers[0]);
+
+        if (printer == null) {
+            return;
+        }
+
+        submitPrintJob(PrintQueue.Target.ESC_POS, printer, markup, FontResolver.FALLBACK_FAMILY, null);
+    }
+
     public String getReceiptContent() {
         return getFormattedText();
     }
@@ -1550,6 +1474,19 @@ public class MainFrame extends JFrame {
         return (String) logoAlignmentCombo.getSelectedItem();
     }
 
+    public void setLoadedTemplate(String templateName, long version) {
+        this.loadedTemplateName = templateName;
+        this.loadedTemplateVersion = version;
+    }
+
+    public String getLoadedTemplateName() {
+        return loadedTemplateName;
+    }
+
+    public long getLoadedTemplateVersion() {
+        return loadedTemplateVersion;
+    }
+
     public void setReceiptContent(String content) {
         receiptTextPane.setText("");
         StyledDocument doc = receiptTextPane.getStyledDocument();
@@ -1559,63 +1496,55 @@ public class MainFrame extends JFrame {
         StyleConstants.setFontSize(defaultAttrs, 14);
         StyleConstants.setBold(defaultAttrs, false);
 
-        Pattern pattern = Pattern.compile("(\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=(\\d+)\\]|\\[/SIZE\\]|\\[FONT=([^\\]]+)\\]|\\[/FONT\\])");
-        Matcher matcher = pattern.matcher(content);
-
-        int lastIndex = 0;
         boolean currentBold = false;
         int currentSize = 14;
         String currentFont = "Courier New";
 
         try {
-            while (matcher.find()) {
-                if (matcher.start() > lastIndex) {
-                    String text = content.substring(lastIndex, matcher.start());
-                    SimpleAttributeSet attrs = new SimpleAttributeSet(defaultAttrs);
-                    StyleConstants.setBold(attrs, currentBold);
-                    StyleConstants.setFontSize(attrs, currentSize);
-                    StyleConstants.setFontFamily(attrs, currentFont);
-                    doc.insertString(doc.getLength(), text, attrs);
-                }
-
-                String tag = matcher.group(0);
-                if (tag.equals("[BOLD]")) {
-                    currentBold = true;
-                } else if (tag.equals("[/BOLD]")) {
-                    currentBold = false;
-                } else if (tag.startsWith("[SIZE=")) {
-                    try {
-                        currentSize = Integer.parseInt(matcher.group(2));
-                    } catch (NumberFormatException e) {
+            for (MarkupTokenizer.Token token : MarkupTokenizer.tokenize(content)) {
+                switch (token.getType()) {
+                    case TEXT:
+                        SimpleAttributeSet attrs = new SimpleAttributeSet(defaultAttrs);
+                        StyleConstants.setBold(attrs, currentBold);
+                        StyleConstants.setFontSize(attrs, currentSize);
+                        StyleConstants.setFontFamily(attrs, currentFont);
+                        doc.insertString(doc.getLength(), token.getText(), attrs);
+                        break;
+                    case BOLD_ON:
+                        currentBold = true;
+                        break;
+                    case BOLD_OFF:
+                        currentBold = false;
+                        break;
+                    case SIZE:
+                        currentSize = token.getSize() >= 0 ? token.getSize() : 14;
+                        break;
+                    case SIZE_OFF:
                         currentSize = 14;
-                    }
-                } else if (tag.equals("[/SIZE]")) {
-                    currentSize = 14;
-                } else if (tag.startsWith("[FONT=")) {
-                    currentFont = matcher.group(3);
-                } else if (tag.equals("[/FONT]")) {
-                    currentFont = "Courier New";
+                        break;
+                    case FONT:
+                        currentFont = token.getFontName();
+                        break;
+                    case FONT_OFF:
+                        currentFont = "Courier New";
+                        break;
                 }
-                lastIndex = matcher.end();
-            }
-
-            if (lastIndex < content.length()) {
-                String text = content.substring(lastIndex);
-                SimpleAttributeSet attrs = new SimpleAttributeSet(defaultAttrs);
-                StyleConstants.setBold(attrs, currentBold);
-                StyleConstants.setFontSize(attrs, currentSize);
-                StyleConstants.setFontFamily(attrs, currentFont);
-                doc.insertString(doc.getLength(), text, attrs);
             }
         } catch (BadLocationException e) {
             e.printStackTrace();
-            receiptTextPane.setText(content.replaceAll("\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=\\d+\\]|\\[/SIZE\\]|\\[FONT=[^\\]]+\\]|\\[/FONT\\]", ""));
+            receiptTextPane.setText(MarkupTokenizer.stripTags(content));
         }
 
         receiptTextPane.setCaretPosition(0);
         updatePreview();
     }
 
+    @Override
+    public void dispose() {
+        previewScheduler.shutdown();
+        super.dispose();
+    }
+
     public void setLogoFromPath(String path, int width, String alignment) {
         if (path == null || path.isEmpty()) {
             return;
@@ -1624,7 +1553,7 @@ public class MainFrame extends JFrame {
         try {
             File logoFile = new File(path);
             if (logoFile.exists()) {
-                logoImage = ImageIO.read(logoFile);
+                logoImage = LogoRaster.read(logoFile);
                 logoPath = path;
 
                 logoPreviewLabel.setText(logoFile.getName());
@@ -1635,6 +1564,7 @@ public class MainFrame extends JFrame {
                 logoWidthSpinner.setValue(width);
                 logoAlignmentCombo.setEnabled(true);
                 logoAlignmentCombo.setSelectedItem(alignment);
+                logoDitheringCombo.setEnabled(true);
 
                 updatePreview();
             }
@@ -1643,358 +1573,24 @@ public class MainFrame extends JFrame {
         }
     }
 
-    private class ReceiptPrintable implements Printable {
-
-        private String content;
-        private int fontSize;
-        private String alignment;
-        private float lineSpacing;
-        private final int TSP100_PRINT_WIDTH = 45;
-        private final int THERMAL_PRINT_FONT_SIZE;
-        private BufferedImage logo;
-        private int logoWidth;
-        private String logoAlignment;
-
-        public ReceiptPrintable(String content, int fontSize, String alignment,
-                BufferedImage logo, int logoWidth, String logoAlignment) {
-            this.content = content;
-            this.fontSize = fontSize;
-            this.alignment = alignment;
-            this.lineSpacing = MainFrame.this.lineSpacing;
-            this.THERMAL_PRINT_FONT_SIZE = (Integer) fontSizeSpinner.getValue();
-            this.logo = logo;
-            this.logoWidth = logoWidth;
-            this.logoAlignment = logoAlignment;
-        }
-
-        @Override
-        public int print(Graphics g, PageFormat pf, int page) throws PrinterException {
-            if (page > 0) {
-                return NO_SUCH_PAGE;
-            }
-
-            Graphics2D g2d = (Graphics2D) g.create();
-            g2d.translate(pf.getImageableX(), pf.getImageableY());
-
-            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-
-            Font baseNormalFont = new Font("Courier New", Font.PLAIN, THERMAL_PRINT_FONT_SIZE);
-            Font baseBoldFont = new Font("Courier New", Font.BOLD, THERMAL_PRINT_FONT_SIZE);
-
-            g2d.setColor(Color.BLACK);
-            FontMetrics fm = g2d.getFontMetrics(baseNormalFont);
-            int baseLineHeight = fm.getHeight();
-            int adjustedLineHeight = (int) (baseLineHeight * lineSpacing);
-            double availableWidth = pf.getImageableWidth();
-
-            int y = adjustedLineHeight;
-
-            // Print logo if available
-            if (logo != null) {
-                int printLogoHeight = (int) (logo.getHeight() * ((double) logoWidth / logo.getWidth()));
-
-                int logoX = 0;
-                if ("CENTER".equals(logoAlignment)) {
-                    logoX = (int) ((availableWidth - logoWidth) / 2);
-                } else if ("RIGHT".equals(logoAlignment)) {
-                    logoX = (int) (availableWidth - logoWidth);
-                }
-
-                g2d.drawImage(logo, logoX, y, logoWidth, printLogoHeight, null);
-                y += printLogoHeight + adjustedLineHeight;
-            }
-
-            String formattedContent = formatForTSP100Print(content, TSP100_PRINT_WIDTH);
-            String[] lines = formattedContent.split("\n");
-
-            for (String line : lines) {
-                if (line.trim().isEmpty()) {
-                    y += adjustedLineHeight / 2;
-                    continue;
-                }
-
-                printFormattedLine(g2d, line, 0, y, baseNormalFont, baseBoldFont, availableWidth);
-                y += adjustedLineHeight;
-
-                if (y > pf.getImageableHeight()) {
-                    break;
-                }
-            }
-
-            return PAGE_EXISTS;
-        }
-
-        private void printFormattedLine(Graphics2D g2d, String line, int x, int y,
-                Font baseNormalFont, Font baseBoldFont, double availableWidth) {
-
-            int currentX = x;
-            boolean currentBold = false;
-            int currentFontSize = THERMAL_PRINT_FONT_SIZE;
-            String currentFontFamily = "Courier New";
-            String allCurrentFontFamily = allSetFontStyle;
-
-            if (isok && allCurrentFontFamily != null && !allCurrentFontFamily.equals("Courier New")) {
-                currentFontFamily = allCurrentFontFamily;
-            }
-
-            Pattern printPattern = Pattern.compile("(\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=(\\d+)\\]|\\[/SIZE\\]|\\[FONT=([^\\]]+)\\]|\\[/FONT\\])");
-            Matcher printMatcher = printPattern.matcher(line);
-
-            int lastIndex = 0;
-
-            while (printMatcher.find()) {
-                if (printMatcher.start() > lastIndex) {
-                    String textToDraw = line.substring(lastIndex, printMatcher.start());
-                    if (!textToDraw.isEmpty()) {
-                        Font fontToUse = createPrintFont(currentFontFamily, currentBold, currentFontSize);
-                        g2d.setFont(fontToUse);
-
-                        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-
-                        g2d.drawString(textToDraw, currentX, y);
-                        currentX += g2d.getFontMetrics(fontToUse).stringWidth(textToDraw);
-                    }
-                }
-
-                String tag = printMatcher.group(0);
-                if (tag.equals("[BOLD]")) {
-                    currentBold = true;
-                } else if (tag.equals("[/BOLD]")) {
-                    currentBold = false;
-                } else if (tag.startsWith("[SIZE=")) {
-                    try {
-                        currentFontSize = Integer.parseInt(printMatcher.group(2));
-                    } catch (NumberFormatException e) {
-                        currentFontSize = THERMAL_PRINT_FONT_SIZE;
-                    }
-                } else if (tag.equals("[/SIZE]")) {
-                    currentFontSize = THERMAL_PRINT_FONT_SIZE;
-                } else if (tag.startsWith("[FONT=")) {
-                    String extractedFont = printMatcher.group(3);
-                    if (extractedFont != null && !extractedFont.trim().isEmpty()) {
-                        currentFontFamily = validateAndGetFont(extractedFont.trim());
-                    }
-                } else if (tag.equals("[/FONT]")) {
-                    currentFontFamily = isok && allCurrentFontFamily != null ? allCurrentFontFamily : "Courier New";
-                }
-
-                lastIndex = printMatcher.end();
-            }
-
-            if (lastIndex < line.length()) {
-                String textToDraw = line.substring(lastIndex);
-                if (!textToDraw.isEmpty()) {
-                    Font fontToUse = createPrintFont(currentFontFamily, currentBold, currentFontSize);
-                    g2d.setFont(fontToUse);
-
-                    g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
-                            RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-
-                    g2d.drawString(textToDraw, currentX, y);
-                }
-            }
-        }
-
-        private Font createPrintFont(String fontFamily, boolean bold, int fontSize) {
-            int fontStyle = bold ? Font.BOLD : Font.PLAIN;
-
-            try {
-                String validatedFont = validateAndGetFont(fontFamily);
-                Font font = new Font(validatedFont, fontStyle, fontSize);
-
-                if (!font.getFamily().equalsIgnoreCase("Dialog")) {
-                    return font;
-                } else {
-                    return new Font("Courier New", fontStyle, fontSize);
-                }
-
-            } catch (Exception e) {
-                System.err.println("Error creating font '" + fontFamily + "': " + e.getMessage());
-                return new Font("Courier New", fontStyle, fontSize);
-            }
-        }
-
-        private String validateAndGetFont(String requestedFont) {
-            GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-            String[] availableFonts = ge.getAvailableFontFamilyNames();
-
-            for (String availableFont : availableFonts) {
-                if (availableFont.equalsIgnoreCase(requestedFont)) {
-                    Font testFont = new Font(availableFont, Font.PLAIN, 12);
-                    if (!testFont.getFamily().equalsIgnoreCase("Dialog")) {
-                        return availableFont;
-                    }
-                }
-            }
-
-            for (String availableFont : availableFonts) {
-                if (availableFont.toLowerCase().contains(requestedFont.toLowerCase())
-                        || requestedFont.toLowerCase().contains(availableFont.toLowerCase())) {
-                    Font testFont = new Font(availableFont, Font.PLAIN, 12);
-                    if (!testFont.getFamily().equalsIgnoreCase("Dialog")) {
-                        System.out.println("Using closest match: " + availableFont + " for requested: " + requestedFont);
-                        return availableFont;
-                    }
-                }
-            }
-
-            String lowerFont = requestedFont.toLowerCase();
-            if (lowerFont.contains("arial") || lowerFont.contains("helvetica")) {
-                return "Arial";
-            } else if (lowerFont.contains("times")) {
-                return "Times New Roman";
-            } else if (lowerFont.contains("courier")) {
-                return "Courier New";
-            } else if (lowerFont.contains("verdana")) {
-                return "Verdana";
-            } else if (lowerFont.contains("tahoma")) {
-                return "Tahoma";
-            }
-
-            System.out.println("Font '" + requestedFont + "' not found or cannot render, using Arial");
-            return "Arial";
-        }
-
-        private String formatForTSP100Print(String input, int maxWidth) {
-            if (input.isEmpty()) {
-                return "";
-            }
-
-            StringBuilder formatted = new StringBuilder();
-            String[] lines = input.split("\n");
-
-            for (String line : lines) {
-                if (line.trim().isEmpty()) {
-                    formatted.append("\n");
-                    continue;
-                }
-
-                if (line.startsWith("[CENTER]")) {
-                    String content = line.substring(8);
-                    formatted.append(centerTextForPrint(content, maxWidth)).append("\n");
-                } else if (line.startsWith("[RIGHT]")) {
-                    String content = line.substring(7);
-                    formatted.append(rightAlignTextForPrint(content, maxWidth)).append("\n");
-                } else if (line.startsWith("[LINE]")) {
-                    formatted.append("-".repeat(maxWidth)).append("\n");
-                } else {
-                    if ("CENTER".equals(this.alignment)) {
-                        formatted.append(centerTextForPrint(line, maxWidth)).append("\n");
-                    } else if ("RIGHT".equals(this.alignment)) {
-                        formatted.append(rightAlignTextForPrint(line, maxWidth)).append("\n");
-                    } else {
-                        String processedLine = processLineLength(line, maxWidth);
-                        formatted.append(processedLine).append("\n");
-                    }
-                }
-            }
-
-            return formatted.toString();
-        }
-
-        private String processLineLength(String line, int maxWidth) {
-            int cleanLineLength = getVisibleTextLengthForPrint(line);
-            if (cleanLineLength <= maxWidth) {
-                return line;
-            }
-
-            StringBuilder result = new StringBuilder();
-            int charCount = 0;
-            boolean inBold = false;
-            boolean inCustomSize = false;
-            boolean inCustomFont = false;
-
-            for (int i = 0; i < line.length() && charCount < maxWidth; i++) {
-                if (line.startsWith("[BOLD]", i)) {
-                    result.append("[BOLD]");
-                    i += 5;
-                    inBold = true;
-                } else if (line.startsWith("[/BOLD]", i)) {
-                    result.append("[/BOLD]");
-                    i += 6;
-                    inBold = false;
-                } else if (line.startsWith("[SIZE=", i)) {
-                    int endIndex = line.indexOf("]", i);
-                    if (endIndex != -1) {
-                        result.append(line.substring(i, endIndex + 1));
-                        i = endIndex;
-                        inCustomSize = true;
-                    } else {
-                        result.append(line.charAt(i));
-                        charCount++;
-                    }
-                } else if (line.startsWith("[/SIZE]", i)) {
-                    result.append("[/SIZE]");
-                    i += 6;
-                    inCustomSize = false;
-                } else if (line.startsWith("[FONT=", i)) {
-                    int endIndex = line.indexOf("]", i);
-                    if (endIndex != -1) {
-                        result.append(line.substring(i, endIndex + 1));
-                        i = endIndex;
-                        inCustomFont = true;
-                    } else {
-                        result.append(line.charAt(i));
-                        charCount++;
-                    }
-                } else if (line.startsWith("[/FONT]", i)) {
-                    result.append("[/FONT]");
-                    i += 6;
-                    inCustomFont = false;
-                } else {
-                    result.append(line.charAt(i));
-                    charCount++;
-                }
-            }
-
-            if (inBold) {
-                result.append("[/BOLD]");
-            }
-            if (inCustomSize) {
-                result.append("[/SIZE]");
-            }
-            if (inCustomFont) {
-                result.append("[/FONT]");
-            }
-
-            return result.toString();
-        }
-
-        private String centerTextForPrint(String text, int width) {
-            int cleanTextLength = getVisibleTextLengthForPrint(text);
-            if (cleanTextLength >= width) {
-                return processLineLength(text, width);
-            }
-            int totalPadding = width - cleanTextLength;
-            int leftPadding = totalPadding / 2;
-            int rightPadding = totalPadding - leftPadding;
-            return " ".repeat(Math.max(0, leftPadding)) + text + " ".repeat(Math.max(0, rightPadding));
-        }
-
-        private String rightAlignTextForPrint(String text, int width) {
-            int cleanTextLength = getVisibleTextLengthForPrint(text);
-            if (cleanTextLength >= width) {
-                return processLineLength(text, width);
-            }
-            int leftPadding = width - cleanTextLength;
-            return " ".repeat(Math.max(0, leftPadding)) + text;
+    public static void main(String[] args) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            BatchPrinter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
         }
-
-        private int getVisibleTextLengthForPrint(String text) {
-            return text.replaceAll("\\[BOLD\\]|\\[/BOLD\\]|\\[SIZE=\\d+\\]|\\[/SIZE\\]|\\[FONT=[^\\]]+\\]|\\[/FONT\\]", "").length();
+        if (args.length > 0 && "--benchmark".equals(args[0])) {
+            ReceiptBenchmark.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
         }
-    }
 
-    public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             try {
                 FlatLightLaf.setup();
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            FontResolver.preload();
+            ReceiptMetrics.register();
             new MainFrame().setVisible(true);
         });
     }
@@ -0,0 +1,232 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass tokenizer for the inline receipt markup
+ * ([BOLD], [/BOLD], [SIZE=n], [/SIZE], [FONT=name], [/FONT]).
+ *
+ * The token stream is shared by the editor loader, the preview and the
+ * printer, so the markup is scanned once per string instead of once per
+ * consumer with a freshly compiled regular expression.
+ */
+public final class MarkupTokenizer {
+
+    public enum TokenType {
+        TEXT, BOLD_ON, BOLD_OFF, SIZE, SIZE_OFF, FONT, FONT_OFF
+    }
+
+    public static final class Token {
+
+        private final TokenType type;
+        private final String source;
+        private final int start;
+        private final int end;
+        private final int size;
+        private final String fontName;
+
+        private Token(TokenType type, String source, int start, int end, int size, String fontName) {
+            this.type = type;
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.size = size;
+            this.fontName = fontName;
+        }
+
+        public TokenType getType() {
+            return type;
+        }
+
+        public boolean isText() {
+            return type == TokenType.TEXT;
+        }
+
+        /**
+         * Text of a TEXT token, or the raw tag for a style token.
+         */
+        public String getText() {
+            return source.substring(start, end);
+        }
+
+        public int length() {
+            return end - start;
+        }
+
+        /**
+         * Size carried by a SIZE token, or -1 when the number does not fit in an int.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public String getFontName() {
+            return fontName;
+        }
+
+        public void appendTo(StringBuilder sb) {
+            sb.append(source, start, end);
+        }
+
+        public void appendTo(StringBuilder sb, int maxChars) {
+            sb.append(source, start, start + Math.min(maxChars, end - start));
+        }
+    }
+
+    private static final String[] ALIGNMENT_TAGS = {
+        "[CENTER]", "[/CENTER]", "[RIGHT]", "[/RIGHT]", "[LEFT]", "[/LEFT]"
+    };
+
+    private MarkupTokenizer() {
+    }
+
+    public static List<Token> tokenize(String markup) {
+        List<Token> tokens = new ArrayList<>();
+        int length = markup.length();
+        int textStart = 0;
+        int i = markup.indexOf('[');
+
+        while (i >= 0) {
+            int tagEnd = matchStyleTag(markup, i);
+            if (tagEnd < 0) {
+                i = markup.indexOf('[', i + 1);
+                continue;
+            }
+
+            if (i > textStart) {
+                tokens.add(new Token(TokenType.TEXT, markup, textStart, i, 0, null));
+            }
+            tokens.add(createTagToken(markup, i, tagEnd));
+
+            textStart = tagEnd;
+            i = markup.indexOf('[', tagEnd);
+        }
+
+        if (textStart < length) {
+            tokens.add(new Token(TokenType.TEXT, markup, textStart, length, 0, null));
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Number of characters left once style tags are removed.
+     */
+    public static int visibleLength(String markup) {
+        int visible = markup.length();
+        int i = markup.indexOf('[');
+
+        while (i >= 0) {
+            int tagEnd = matchStyleTag(markup, i);
+            if (tagEnd < 0) {
+                i = markup.indexOf('[', i + 1);
+            } else {
+                visible -= tagEnd - i;
+                i = markup.indexOf('[', tagEnd);
+            }
+        }
+
+        return visible;
+    }
+
+    public static String stripTags(String markup) {
+        return stripTags(markup, false);
+    }
+
+    /**
+     * Removes style tags and, optionally, the [CENTER]/[RIGHT]/[LEFT] alignment tags.
+     */
+    public static String stripTags(String markup, boolean includeAlignmentTags) {
+        int i = markup.indexOf('[');
+        if (i < 0) {
+            return markup;
+        }
+
+        StringBuilder result = new StringBuilder(markup.length());
+        int textStart = 0;
+
+        while (i >= 0) {
+            int tagEnd = matchStyleTag(markup, i);
+            if (tagEnd < 0 && includeAlignmentTags) {
+                tagEnd = matchAlignmentTag(markup, i);
+            }
+
+            if (tagEnd < 0) {
+                i = markup.indexOf('[', i + 1);
+            } else {
+                result.append(markup, textStart, i);
+                textStart = tagEnd;
+                i = markup.indexOf('[', tagEnd);
+            }
+        }
+
+        result.append(markup, textStart, markup.length());
+        return result.toString();
+    }
+
+    /**
+     * Returns the index just past the style tag starting at {@code i}, or -1
+     * if there is no well-formed style tag at that position.
+     */
+    private static int matchStyleTag(String s, int i) {
+        if (s.startsWith("[BOLD]", i)) {
+            return i + 6;
+        }
+        if (s.startsWith("[/BOLD]", i) || s.startsWith("[/SIZE]", i) || s.startsWith("[/FONT]", i)) {
+            return i + 7;
+        }
+        if (s.startsWith("[SIZE=", i)) {
+            int j = i + 6;
+            while (j < s.length() && s.charAt(j) >= '0' && s.charAt(j) <= '9') {
+                j++;
+            }
+            return j > i + 6 && j < s.length() && s.charAt(j) == ']' ? j + 1 : -1;
+        }
+        if (s.startsWith("[FONT=", i)) {
+            int close = s.indexOf(']', i + 6);
+            return close > i + 6 ? close + 1 : -1;
+        }
+        return -1;
+    }
+
+    private static int matchAlignmentTag(String s, int i) {
+        for (String tag : ALIGNMENT_TAGS) {
+            if (s.startsWith(tag, i)) {
+                return i + tag.length();
+            }
+        }
+        return -1;
+    }
+
+    private static Token createTagToken(String s, int start, int end) {
+        switch (s.charAt(start + 1)) {
+            case 'B':
+                return new Token(TokenType.BOLD_ON, s, start, end, 0, null);
+            case 'S':
+                return new Token(TokenType.SIZE, s, start, end, parseSize(s, start + 6, end - 1), null);
+            case 'F':
+                return new Token(TokenType.FONT, s, start, end, 0, s.substring(start + 6, end - 1));
+            default:
+                switch (s.charAt(start + 2)) {
+                    case 'B':
+                        return new Token(TokenType.BOLD_OFF, s, start, end, 0, null);
+                    case 'S':
+                        return new Token(TokenType.SIZE_OFF, s, start, end, 0, null);
+                    default:
+                        return new Token(TokenType.FONT_OFF, s, start, end, 0, null);
+                }
+        }
+    }
+
+    private static int parseSize(String s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+}
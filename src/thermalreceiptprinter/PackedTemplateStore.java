@@ -0,0 +1,655 @@
+package thermalreceiptprinter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file template store: every save or delete appends a record to
+ * {@code templates.pack}, and {@code templates.idx} remembers where the live
+ * record of each template starts. Opening the store reads the index and maps
+ * the pack file, so listing and loading any number of templates takes two
+ * file opens. Superseded records are dropped by {@link #compact()}.
+ *
+ * Several terminals may share one pack. Appends are serialized by a lock on
+ * {@code templates.lock}; before every access a store picks up the records
+ * other processes appended since it last looked, which costs reading the
+ * pack header when nothing changed. Each compaction writes a new pack with
+ * the next generation in its header, so a store notices the replacement even
+ * if the new pack has since grown past the old one.
+ *
+ * Header: {@code int magic, int version, long generation}. Record layout:
+ * {@code int length, byte type, UTF name} followed for a save
+ * by {@code int contentLength, content (UTF-8), int infoLength, info
+ * (properties)}.
+ */
+final class PackedTemplateStore implements TemplateStore {
+
+    static final String PACK_FILE = "templates.pack";
+    static final String INDEX_FILE = "templates.idx";
+    static final String LOCK_FILE = "templates.lock";
+
+    private static final int PACK_MAGIC = 0x5254504B; // "RTPK"
+    private static final int INDEX_MAGIC = 0x52545058; // "RTPX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    private static final class Location {
+
+        private final long offset;
+        private final int length;
+        private final Entry entry;
+
+        private Location(long offset, int length, Entry entry) {
+            this.offset = offset;
+            this.length = length;
+            this.entry = entry;
+        }
+    }
+
+    private final Path packPath;
+    private final Path indexPath;
+    private final Path lockPath;
+    private final boolean memoryMapped;
+
+    private Map<String, Location> locations;
+    private List<String> sortedNames;
+    private ByteBuffer data;
+    private long packLength;
+    private long generation;
+
+    PackedTemplateStore(Path directory) {
+        this(directory, true);
+    }
+
+    /**
+     * @param memoryMapped false to read the pack onto the heap instead. A
+     * mapped file cannot be replaced on Windows until the mapping is garbage
+     * collected, so the compaction tool does not map it.
+     */
+    PackedTemplateStore(Path directory, boolean memoryMapped) {
+        this.packPath = directory.resolve(PACK_FILE);
+        this.indexPath = directory.resolve(INDEX_FILE);
+        this.lockPath = directory.resolve(LOCK_FILE);
+        this.memoryMapped = memoryMapped;
+    }
+
+    static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(PACK_FILE));
+    }
+
+    @Override
+    public synchronized Entry get(String fileName) {
+        ensureCurrent();
+        Location location = locations.get(fileName);
+        return location != null ? location.entry : null;
+    }
+
+    @Override
+    public synchronized List<Entry> getEntries() {
+        ensureCurrent();
+        List<Entry> entries = new ArrayList<>(locations.size());
+        for (Location location : locations.values()) {
+            entries.add(location.entry);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized List<String> getDisplayNames() {
+        ensureCurrent();
+        if (sortedNames == null) {
+            List<String> names = new ArrayList<>(locations.size());
+            for (Location location : locations.values()) {
+                names.add(location.entry.getDisplayName());
+            }
+            Collections.sort(names);
+            sortedNames = Collections.unmodifiableList(names);
+        }
+        return sortedNames;
+    }
+
+    @Override
+    public synchronized String read(String fileName) throws IOException {
+        ensureCurrent();
+        Location location = locations.get(fileName);
+        if (location == null) {
+            return null;
+        }
+
+        DataInputStream in = recordStream(location.offset, location.length);
+        in.readByte();
+        in.readUTF();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void write(String fileName, String content, TemplateManager.TemplateInfo info,
+            long expectedVersion) throws IOException {
+        try (FileChannel channel = openLock()) {
+            channel.lock();
+            ensureCurrent();
+            if (expectedVersion != ANY_VERSION) {
+                Location current = locations.get(fileName);
+                long actualVersion = current != null ? current.entry.getVersion() : NO_VERSION;
+                if (actualVersion != expectedVersion) {
+                    throw new TemplateConflictException(fileName, expectedVersion, actualVersion);
+                }
+            }
+            put(fileName, content, info);
+            writeIndex();
+        }
+    }
+
+    private void put(String fileName, String content, TemplateManager.TemplateInfo info) throws IOException {
+        ensureOpen();
+        byte[] record = encodePut(fileName, content.getBytes(StandardCharsets.UTF_8), info);
+        long offset = append(record);
+
+        Entry entry = decodeEntry(ByteBuffer.wrap(record, 4, record.length - 4).slice(), System.currentTimeMillis());
+        locations.put(fileName, new Location(offset, record.length, entry));
+        sortedNames = null;
+    }
+
+    @Override
+    public synchronized boolean delete(String fileName) throws IOException {
+        try (FileChannel channel = openLock()) {
+            channel.lock();
+            ensureCurrent();
+            if (!locations.containsKey(fileName)) {
+                return false;
+            }
+            appendDelete(fileName);
+            writeIndex();
+            return true;
+        }
+    }
+
+    private void appendDelete(String fileName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(RECORD_DELETE);
+        out.writeUTF(fileName);
+        byte[] record = withLength(bytes.toByteArray());
+        append(record);
+
+        locations.remove(fileName);
+        sortedNames = null;
+    }
+
+    /**
+     * Opens the lock file; a lock taken on the channel is released when the
+     * channel is closed.
+     */
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        locations = null;
+        sortedNames = null;
+        data = null;
+    }
+
+    /**
+     * Rewrites the pack with only the live record of each template. Other
+     * terminals reload the pack once they see the new generation, but on
+     * Windows the replacement fails while any of them has it mapped, so close
+     * them first.
+     */
+    synchronized void compact() throws IOException {
+        try (FileChannel channel = openLock()) {
+            channel.lock();
+            ensureCurrent();
+            rewrite();
+        }
+    }
+
+    private void rewrite() throws IOException {
+        Path tempPack = packPath.resolveSibling(PACK_FILE + ".tmp");
+
+        Map<String, Location> compacted = new HashMap<>();
+        try (FileChannel out = FileChannel.open(tempPack, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(header(generation + 1));
+            long offset = HEADER_SIZE;
+            for (Map.Entry<String, Location> e : locations.entrySet()) {
+                Location location = e.getValue();
+                ByteBuffer record = slice(location.offset, location.length);
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+                compacted.put(e.getKey(), new Location(offset, location.length, location.entry));
+                offset += location.length;
+            }
+            out.force(true);
+        }
+
+        data = null;
+        move(tempPack, packPath);
+        generation++;
+        locations = compacted;
+        packLength = Files.size(packPath);
+        writeIndex();
+    }
+
+    /**
+     * Opens the store, or applies records appended by other processes. A pack
+     * that was replaced or shrank was compacted elsewhere and is reloaded.
+     */
+    private void ensureCurrent() {
+        if (locations == null) {
+            ensureOpen();
+            return;
+        }
+        try {
+            long actualLength = 0;
+            long actualGeneration = generation;
+            try (FileChannel channel = FileChannel.open(packPath, StandardOpenOption.READ)) {
+                actualLength = channel.size();
+                if (actualLength >= HEADER_SIZE) {
+                    actualGeneration = readHeader(channel);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted; reloads as empty below
+            }
+
+            if (actualGeneration != generation || actualLength < packLength) {
+                reload();
+            } else if (actualLength > packLength) {
+                scan(packLength, actualLength, false);
+                sortedNames = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to refresh template pack: " + e.getMessage());
+            reload();
+        }
+    }
+
+    private void reload() {
+        invalidateAll();
+        ensureOpen();
+    }
+
+    private void ensureOpen() {
+        if (locations != null) {
+            return;
+        }
+        locations = new HashMap<>();
+        sortedNames = null;
+        data = null;
+        packLength = HEADER_SIZE;
+        generation = 0;
+
+        try {
+            if (!Files.exists(packPath)) {
+                return;
+            }
+            // Header, index check and records all from one mapping, in case
+            // the pack is replaced meanwhile
+            generation = readHeader(slice(0, HEADER_SIZE));
+            long actualLength = data.capacity();
+            long start = readIndex(actualLength);
+            if (start < 0) {
+                locations.clear();
+                start = HEADER_SIZE;
+            }
+            // Records appended after the index was last written
+            scan(start, actualLength, true);
+        } catch (IOException e) {
+            System.err.println("Failed to open template pack: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the index and returns the pack offset it covers, or -1 if the
+     * index is missing or does not match the pack.
+     */
+    private long readIndex(long actualLength) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(indexPath);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION || in.readLong() != generation) {
+                return -1;
+            }
+            long coveredLength = in.readLong();
+            if (coveredLength > actualLength) {
+                return -1;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String fileName = in.readUTF();
+                long offset = in.readLong();
+                int length = in.readInt();
+                long lastModified = in.readLong();
+                ByteBuffer record = slice(offset, length);
+                record.position(4);
+                locations.put(fileName, new Location(offset, length, decodeEntry(record.slice(), lastModified)));
+            }
+            return coveredLength;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Template index is damaged, rebuilding: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @param reportTornTail false while other writers may be mid-append
+     */
+    private void scan(long start, long end, boolean reportTornTail) throws IOException {
+        long lastModified = Files.getLastModifiedTime(packPath).toMillis();
+        long offset = start;
+        while (offset + 4 <= end) {
+            int length = slice(offset, 4).getInt();
+            if (length < 5 || offset + length > end) {
+                // Torn write at the tail; ignore it until it is overwritten
+                if (reportTornTail) {
+                    System.err.println("Ignoring incomplete template record at offset " + offset);
+                }
+                break;
+            }
+
+            ByteBuffer record = slice(offset, length);
+            record.position(4);
+            ByteBuffer body = record.slice();
+            byte type = body.get(0);
+            String fileName = readName(body);
+
+            if (type == RECORD_PUT) {
+                locations.put(fileName, new Location(offset, length, decodeEntry(body, lastModified)));
+            } else if (type == RECORD_DELETE) {
+                locations.remove(fileName);
+            }
+            offset += length;
+        }
+        packLength = offset;
+    }
+
+    /**
+     * Writes a record after the last complete one. Callers hold the pack
+     * lock and have just brought {@code packLength} up to date.
+     */
+    private long append(byte[] record) throws IOException {
+        boolean created = !Files.exists(packPath);
+        try (FileChannel channel = FileChannel.open(packPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (created || channel.size() < HEADER_SIZE) {
+                generation = 0;
+                channel.write(header(generation), 0);
+                packLength = HEADER_SIZE;
+            } else if (readHeader(channel) != generation) {
+                // Never write at offsets that belong to another pack
+                throw new IOException("Template pack was compacted meanwhile");
+            }
+            long offset = packLength;
+            if (channel.size() > offset) {
+                discardTail(channel, offset);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            packLength = offset + record.length;
+            return offset;
+        }
+    }
+
+    /**
+     * Drops the torn tail of a writer that crashed; a shorter record written
+     * over it would leave the rest behind to be parsed as garbage. Windows
+     * refuses to truncate while another terminal has the tail mapped, so it
+     * is zeroed instead, which reads as a torn record too.
+     */
+    private static void discardTail(FileChannel channel, long offset) throws IOException {
+        try {
+            channel.truncate(offset);
+        } catch (IOException e) {
+            ByteBuffer zeros = ByteBuffer.allocate(8192);
+            long end = channel.size();
+            long position = offset;
+            while (position < end) {
+                zeros.clear().limit((int) Math.min(zeros.capacity(), end - position));
+                position += channel.write(zeros, position);
+            }
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation);
+        out.writeLong(packLength);
+        out.writeInt(locations.size());
+        for (Map.Entry<String, Location> e : locations.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue().offset);
+            out.writeInt(e.getValue().length);
+            out.writeLong(e.getValue().entry.getLastModified());
+        }
+
+        Path tempIndex = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        Files.write(tempIndex, bytes.toByteArray());
+        move(tempIndex, indexPath);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        if (data == null || offset + length > data.capacity()) {
+            // Remap after the file has grown
+            boolean remap = data != null;
+            if (memoryMapped) {
+                try (FileChannel channel = FileChannel.open(packPath, StandardOpenOption.READ)) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } else {
+                data = ByteBuffer.wrap(Files.readAllBytes(packPath));
+            }
+            if (remap && (data.capacity() < HEADER_SIZE || readHeader(data.duplicate()) != generation)) {
+                throw new IOException("Template pack was compacted meanwhile");
+            }
+        }
+        if (offset + length > data.capacity()) {
+            throw new IOException("Template record beyond end of pack");
+        }
+        ByteBuffer view = data.duplicate();
+        view.position((int) offset);
+        view.limit((int) offset + length);
+        return view.slice();
+    }
+
+    private DataInputStream recordStream(long offset, int length) throws IOException {
+        ByteBuffer record = slice(offset, length);
+        byte[] bytes = new byte[length - 4];
+        record.position(4);
+        record.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(PACK_MAGIC).putInt(VERSION).putLong(generation).flip();
+        return header;
+    }
+
+    private long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Template pack header is incomplete");
+            }
+        }
+        header.flip();
+        return readHeader(header);
+    }
+
+    /**
+     * Checks a pack header and returns its generation.
+     */
+    private long readHeader(ByteBuffer header) throws IOException {
+        if (header.getInt() != PACK_MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a template pack: " + packPath);
+        }
+        return header.getLong();
+    }
+
+    private static byte[] encodePut(String fileName, byte[] content, TemplateManager.TemplateInfo info)
+            throws IOException {
+        ByteArrayOutputStream infoBytes = new ByteArrayOutputStream();
+        if (info != null) {
+            info.toProperties().store(infoBytes, null);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + infoBytes.size() + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(fileName);
+        out.writeInt(content.length);
+        out.write(content);
+        out.writeInt(infoBytes.size());
+        infoBytes.writeTo(out);
+        return withLength(bytes.toByteArray());
+    }
+
+    private static byte[] withLength(byte[] record) {
+        ByteBuffer.wrap(record).putInt(0, record.length);
+        return record;
+    }
+
+    private static String readName(ByteBuffer body) throws IOException {
+        int nameLength = body.getShort(1) & 0xFFFF;
+        byte[] name = new byte[nameLength + 2];
+        body.position(1);
+        body.get(name);
+        return new DataInputStream(new ByteArrayInputStream(name)).readUTF();
+    }
+
+    /**
+     * Builds the index entry for a put record body (the record without its
+     * length prefix), hashing the content straight from the buffer.
+     */
+    private static Entry decodeEntry(ByteBuffer body, long lastModified) throws IOException {
+        String fileName = readName(body);
+        int position = 1 + 2 + (body.getShort(1) & 0xFFFF);
+
+        int contentLength = body.getInt(position);
+        ByteBuffer content = body.duplicate();
+        content.position(position + 4);
+        content.limit(position + 4 + contentLength);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        position += 4 + contentLength;
+        int infoLength = body.getInt(position);
+        byte[] infoBytes = new byte[infoLength];
+        TemplateManager.TemplateInfo info = null;
+        if (infoLength > 0) {
+            ByteBuffer infoBuffer = body.duplicate();
+            infoBuffer.position(position + 4);
+            infoBuffer.get(infoBytes);
+            Properties props = new Properties();
+            props.load(new ByteArrayInputStream(infoBytes));
+            info = TemplateManager.TemplateInfo.fromProperties(props, fileName);
+        }
+
+        return new Entry(fileName, info, crc.getValue(), contentLength, lastModified,
+                Entry.version(crc, infoBytes));
+    }
+
+    /**
+     * Command line tool: {@code migrate [templatesDir]} packs an existing
+     * templates directory, {@code compact [templatesDir]} drops superseded
+     * records.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || !("migrate".equals(args[0]) || "compact".equals(args[0]))) {
+            System.err.println("Usage: PackedTemplateStore (migrate | compact) [templatesDir]");
+            System.exit(2);
+            return;
+        }
+        Path directory = Paths.get(args.length > 1 ? args[1] : "templates");
+
+        try {
+            PackedTemplateStore packed = new PackedTemplateStore(directory, false);
+            if ("migrate".equals(args[0])) {
+                int count = migrate(new DirectoryTemplateStore(directory, ".template", ".info"), packed);
+                System.out.println("Migrated " + count + " template(s) to " + packed.packPath);
+            } else {
+                long before = Files.exists(packed.packPath) ? Files.size(packed.packPath) : 0;
+                packed.compact();
+                System.out.println("Compacted " + packed.packPath + " from " + before + " to "
+                        + Files.size(packed.packPath) + " bytes");
+            }
+        } catch (IOException e) {
+            System.err.println("Template pack " + args[0] + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Copies every template of {@code source} into {@code target}. The source
+     * files are left in place.
+     */
+    static int migrate(TemplateStore source, PackedTemplateStore target) throws IOException {
+        int count = 0;
+        synchronized (target) {
+            try (FileChannel channel = target.openLock()) {
+                channel.lock();
+                target.ensureCurrent();
+                for (Entry entry : source.getEntries()) {
+                    String content = source.read(entry.getFileName());
+                    if (content != null) {
+                        target.put(entry.getFileName(), content, entry.getInfo());
+                        count++;
+                    }
+                }
+                target.writeIndex();
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,159 @@
+package thermalreceiptprinter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Coalesces editor changes into at most one preview render per debounce
+ * window. The markup of changed paragraphs is captured on the EDT, laid out
+ * on a background thread and swapped into the preview back on the EDT.
+ *
+ * The window defaults to one frame and can be changed with the
+ * {@code receipt.preview.debounceMs} system property.
+ */
+public class PreviewScheduler {
+
+    private static final int DEBOUNCE_MS = Integer.getInteger("receipt.preview.debounceMs", 16);
+
+    private final ReceiptPreviewRenderer renderer;
+    private final Supplier<ReceiptPreviewRenderer.Snapshot> snapshotSupplier;
+    private final Runnable afterRender;
+    private final Timer timer;
+    private final ExecutorService layoutExecutor;
+
+    private boolean layoutInFlight = false;
+    private boolean renderRequested = false;
+
+    public PreviewScheduler(ReceiptPreviewRenderer renderer,
+            Supplier<ReceiptPreviewRenderer.Snapshot> snapshotSupplier, Runnable afterRender) {
+        this.renderer = renderer;
+        this.snapshotSupplier = snapshotSupplier;
+        this.afterRender = afterRender;
+
+        this.timer = new Timer(DEBOUNCE_MS, e -> flush());
+        this.timer.setRepeats(false);
+
+        this.layoutExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "receipt-preview-layout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Requests a render. Calls made within the same window share one render.
+     */
+    public void schedule() {
+        if (layoutInFlight) {
+            renderRequested = true;
+        } else if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Renders synchronously on the calling (EDT) thread, for changes such as
+     * font size or alignment where the user expects an immediate update.
+     */
+    public void renderNow() {
+        ReceiptEvents.PreviewRebuild event = new ReceiptEvents.PreviewRebuild();
+        event.begin();
+        long start = System.nanoTime();
+        timer.stop();
+        ReceiptPreviewRenderer.Snapshot snapshot;
+        try {
+            snapshot = prepareAndLayout();
+        } catch (RuntimeException e) {
+            // The preview keeps its last good state; the paragraphs stay
+            // pending and are retried with the next change
+            reportFailure(e);
+            return;
+        }
+        renderer.apply(snapshot);
+        afterRender.run();
+        ReceiptMetrics.PREVIEW_RENDER.recordSince(start);
+        commit(event, snapshot, false);
+    }
+
+    /**
+     * Stops the timer and the layout thread; called when the editor closes.
+     */
+    public void shutdown() {
+        timer.stop();
+        layoutExecutor.shutdownNow();
+    }
+
+    private ReceiptPreviewRenderer.Snapshot prepareAndLayout() {
+        ReceiptPreviewRenderer.Snapshot snapshot = snapshotSupplier.get();
+        snapshot.layout();
+        return snapshot;
+    }
+
+    private void flush() {
+        ReceiptEvents.PreviewRebuild event = new ReceiptEvents.PreviewRebuild();
+        event.begin();
+        long start = System.nanoTime();
+        ReceiptPreviewRenderer.Snapshot snapshot = snapshotSupplier.get();
+
+        if (!snapshot.hasWork()) {
+            renderer.apply(snapshot);
+            afterRender.run();
+            ReceiptMetrics.PREVIEW_RENDER.recordSince(start);
+            commit(event, snapshot, false);
+            return;
+        }
+
+        layoutInFlight = true;
+        layoutExecutor.execute(() -> {
+            try {
+                snapshot.layout();
+                SwingUtilities.invokeLater(() -> finish(snapshot, start, event));
+            } catch (RuntimeException e) {
+                reportFailure(e);
+                SwingUtilities.invokeLater(this::layoutFailed);
+            }
+        });
+    }
+
+    /**
+     * Lets edits made while the failed layout was running render as usual.
+     */
+    private void layoutFailed() {
+        layoutInFlight = false;
+        if (renderRequested) {
+            renderRequested = false;
+            schedule();
+        }
+    }
+
+    private static void reportFailure(RuntimeException e) {
+        System.err.println("Failed to lay out preview: " + e);
+    }
+
+    private void finish(ReceiptPreviewRenderer.Snapshot snapshot, long start,
+            ReceiptEvents.PreviewRebuild event) {
+        layoutInFlight = false;
+        boolean complete = renderer.apply(snapshot);
+        afterRender.run();
+        ReceiptMetrics.PREVIEW_RENDER.recordSince(start);
+        commit(event, snapshot, true);
+
+        if (!complete || renderRequested) {
+            renderRequested = false;
+            schedule();
+        }
+    }
+
+    private static void commit(ReceiptEvents.PreviewRebuild event, ReceiptPreviewRenderer.Snapshot snapshot,
+            boolean background) {
+        if (event.shouldCommit()) {
+            event.paragraphs = snapshot.getParagraphCount();
+            event.chars = snapshot.getCharCount();
+            event.background = background;
+            event.commit();
+        }
+    }
+}
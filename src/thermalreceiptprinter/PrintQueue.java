@@ -0,0 +1,659 @@
+package thermalreceiptprinter;
+
+import java.awt.image.BufferedImage;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.print.PrintService;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.Media;
+
+/**
+ * Spools receipts to printers in the background so the editor never waits
+ * for a spooler or a printer. {@link #submit} returns at once; every printer
+ * has its own worker thread that prints its jobs in submission order and
+ * retries a failing job with growing delays before giving up on it and moving
+ * on to the next one.
+ *
+ * Jobs that have not printed yet are kept in {@code print-queue/}, one file
+ * each, and are picked up again on the next start. A job interrupted while it
+ * was printing is printed again.
+ */
+public final class PrintQueue {
+
+    public static final String QUEUE_DIR = "print-queue";
+    static final int MAX_ATTEMPTS = 6;
+
+    private static final String JOB_EXTENSION = ".job";
+    private static final long FIRST_RETRY_DELAY_MILLIS = 2000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    private static final int HISTORY_SIZE = 100;
+
+    public enum Target {
+        SYSTEM("Print driver"),
+        ESC_POS("ESC/POS"),
+        ESC_POS_RASTER("ESC/POS raster");
+
+        private final String label;
+
+        Target(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public enum Status {
+        QUEUED("Queued"),
+        PRINTING("Printing"),
+        RETRYING("Waiting to retry"),
+        PRINTED("Printed"),
+        FAILED("Failed"),
+        CANCELLED("Cancelled");
+
+        private final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+
+        public boolean isFinished() {
+            return this == PRINTED || this == FAILED || this == CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Called on a worker thread whenever a job is added or changes status;
+     * {@code job} is null when several jobs were removed at once.
+     */
+    public interface Listener {
+
+        void jobChanged(Job job);
+    }
+
+    /**
+     * A receipt to print: the editor markup and print settings rather than a
+     * rendered page, so it can be written to disk and printed after a restart.
+     */
+    public static final class Job {
+
+        private long id;
+        private final Target target;
+        private final String printerName;
+        private final String markup;
+        private final int width;
+        private final int printerDots;
+        private final String alignment;
+        private final int fontSize;
+        private final float lineSpacing;
+        private final String fontFamily;
+        private final String logoPath;
+        private final int logoWidth;
+        private final String logoAlignment;
+        private final LogoRaster.Dithering dithering;
+        private final long createdAt;
+
+        // Only set while the job comes straight from the editor
+        private final BufferedImage logoImage;
+        private PrintRequestAttributeSet printAttributes;
+
+        // What survives a restart of the print dialog's choices
+        private int copies = 1;
+        private String mediaName;
+
+        private volatile Status status = Status.QUEUED;
+        private volatile int attempts;
+        private volatile String lastError;
+        private volatile long nextAttemptAt;
+
+        public Job(Target target, String printerName, String markup, ReceiptDocument.LogoBlock logo,
+                int width, String alignment, int fontSize, float lineSpacing, String fontFamily) {
+            this(target, printerName, markup, logo, width, EscPosReceiptPrinter.PRINTER_DOTS_80MM, alignment,
+                    fontSize, lineSpacing, fontFamily);
+        }
+
+        /**
+         * @param width characters per line
+         * @param printerDots dots across the print head, for ESC/POS logos
+         */
+        public Job(Target target, String printerName, String markup, ReceiptDocument.LogoBlock logo,
+                int width, int printerDots, String alignment, int fontSize, float lineSpacing,
+                String fontFamily) {
+            this(target, printerName, markup, width, printerDots, alignment, fontSize, lineSpacing, fontFamily,
+                    logo != null ? logo.getPath() : null,
+                    logo != null ? logo.getWidth() : 0,
+                    logo != null ? logo.getAlignment() : null,
+                    logo != null ? logo.getDithering() : null,
+                    logo != null ? logo.getImage() : null,
+                    System.currentTimeMillis());
+        }
+
+        private Job(Target target, String printerName, String markup, int width, int printerDots,
+                String alignment, int fontSize, float lineSpacing, String fontFamily, String logoPath, int logoWidth,
+                String logoAlignment, LogoRaster.Dithering dithering, BufferedImage logoImage, long createdAt) {
+            this.target = target;
+            this.printerName = printerName;
+            this.markup = markup;
+            this.width = width;
+            this.printerDots = printerDots;
+            this.alignment = alignment;
+            this.fontSize = fontSize;
+            this.lineSpacing = lineSpacing;
+            this.fontFamily = fontFamily;
+            this.logoPath = logoPath;
+            this.logoWidth = logoWidth;
+            this.logoAlignment = logoAlignment;
+            this.dithering = dithering;
+            this.logoImage = logoImage;
+            this.createdAt = createdAt;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public String getPrinterName() {
+            return printerName;
+        }
+
+        public String getMarkup() {
+            return markup;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Returns the message of the last failed attempt, or null.
+         */
+        public String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * Returns when a job waiting to retry will be tried again.
+         */
+        public long getNextAttemptAt() {
+            return nextAttemptAt;
+        }
+
+        /**
+         * Keeps the choices made in the print dialog for a print driver job.
+         * Call before submitting; after a restart only the number of copies
+         * and the paper are kept.
+         */
+        public void setPrintAttributes(PrintRequestAttributeSet attributes) {
+            printAttributes = new HashPrintRequestAttributeSet(attributes);
+            Copies chosenCopies = (Copies) attributes.get(Copies.class);
+            copies = chosenCopies != null ? chosenCopies.getValue() : 1;
+            Media media = (Media) attributes.get(Media.class);
+            mediaName = media != null ? media.toString() : null;
+        }
+
+        PrintRequestAttributeSet createPrintAttributes(PrintService service) {
+            if (printAttributes != null) {
+                return new HashPrintRequestAttributeSet(printAttributes);
+            }
+            PrintRequestAttributeSet attributes = ReceiptPrintable.createPrintAttributes();
+            attributes.add(new Copies(copies));
+            if (mediaName != null) {
+                Object supported = service.getSupportedAttributeValues(Media.class, null, null);
+                if (supported instanceof Media[]) {
+                    for (Media media : (Media[]) supported) {
+                        if (media.toString().equals(mediaName)) {
+                            attributes.add(media);
+                            break;
+                        }
+                    }
+                }
+            }
+            return attributes;
+        }
+
+        ReceiptLayout createLayout() {
+            return new ReceiptLayout(width, alignment);
+        }
+
+        ReceiptDocument toDocument() {
+            return ReceiptDocument.parse(markup, loadLogo());
+        }
+
+        private ReceiptDocument.LogoBlock loadLogo() {
+            if (logoPath == null && logoImage == null) {
+                return null;
+            }
+
+            BufferedImage image = logoImage;
+            if (image == null) {
+                try {
+                    image = LogoRaster.read(new File(logoPath));
+                } catch (IOException e) {
+                    System.err.println("Failed to load logo from path: " + e.getMessage());
+                }
+                if (image == null) {
+                    return null;
+                }
+            }
+            return new ReceiptDocument.LogoBlock(image, logoPath, logoWidth, logoAlignment, dithering);
+        }
+
+        Properties toProperties() {
+            Properties props = new Properties();
+            props.setProperty("target", target.name());
+            props.setProperty("printer", printerName);
+            props.setProperty("markup", markup);
+            props.setProperty("width", String.valueOf(width));
+            props.setProperty("dots", String.valueOf(printerDots));
+            props.setProperty("alignment", alignment);
+            props.setProperty("fontSize", String.valueOf(fontSize));
+            props.setProperty("lineSpacing", String.valueOf(lineSpacing));
+            props.setProperty("fontFamily", fontFamily);
+            props.setProperty("createdAt", String.valueOf(createdAt));
+            props.setProperty("status", status.name());
+            props.setProperty("attempts", String.valueOf(attempts));
+            props.setProperty("copies", String.valueOf(copies));
+            if (mediaName != null) {
+                props.setProperty("media", mediaName);
+            }
+
+            if (logoPath != null) {
+                props.setProperty("logoPath", logoPath);
+                props.setProperty("logoWidth", String.valueOf(logoWidth));
+                props.setProperty("logoAlignment", logoAlignment);
+                props.setProperty("logoDithering", dithering.name());
+            }
+            if (lastError != null) {
+                props.setProperty("lastError", lastError);
+            }
+            return props;
+        }
+
+        static Job fromProperties(long id, Properties props) {
+            String logoPath = props.getProperty("logoPath");
+            String dithering = props.getProperty("logoDithering");
+
+            Job job = new Job(Target.valueOf(props.getProperty("target", Target.SYSTEM.name())),
+                    props.getProperty("printer"),
+                    props.getProperty("markup", ""),
+                    Integer.parseInt(props.getProperty("width", String.valueOf(ReceiptLayout.TSP100_CHAR_WIDTH))),
+                    Integer.parseInt(props.getProperty("dots", String.valueOf(EscPosReceiptPrinter.PRINTER_DOTS_80MM))),
+                    props.getProperty("alignment", "LEFT"),
+                    Integer.parseInt(props.getProperty("fontSize", "12")),
+                    Float.parseFloat(props.getProperty("lineSpacing", "1.0")),
+                    props.getProperty("fontFamily", FontResolver.FALLBACK_FAMILY),
+                    logoPath,
+                    Integer.parseInt(props.getProperty("logoWidth", "150")),
+                    props.getProperty("logoAlignment", "CENTER"),
+                    dithering != null ? LogoRaster.Dithering.valueOf(dithering) : null,
+                    null,
+                    Long.parseLong(props.getProperty("createdAt", "0")));
+            job.id = id;
+            job.attempts = Integer.parseInt(props.getProperty("attempts", "0"));
+            job.copies = Integer.parseInt(props.getProperty("copies", "1"));
+            job.mediaName = props.getProperty("media");
+            job.lastError = props.getProperty("lastError");
+            job.status = Status.valueOf(props.getProperty("status", Status.QUEUED.name()));
+            return job;
+        }
+    }
+
+    private static PrintQueue instance;
+
+    private final Path directory;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Pending jobs and recently finished ones, by id; guarded by this
+    private final Map<Long, Job> jobs = new TreeMap<>();
+    private final Map<String, ExecutorService> workers = new HashMap<>();
+
+    PrintQueue(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the application's queue, resuming jobs left over from the last
+     * run the first time it is called.
+     */
+    public static synchronized PrintQueue getInstance() {
+        if (instance == null) {
+            instance = new PrintQueue(Paths.get(QUEUE_DIR));
+            instance.restore();
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues the job and returns immediately.
+     */
+    public Job submit(Job job) {
+        job.id = nextId.getAndIncrement();
+        persist(job);
+        synchronized (this) {
+            jobs.put(job.id, job);
+            trimHistory();
+        }
+        fireChanged(job);
+        schedule(job);
+        return job;
+    }
+
+    /**
+     * Returns the pending and recently finished jobs, oldest first.
+     */
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Cancels a job that has not started printing, or removes a failed one.
+     * Returns false if the job is printing or already printed.
+     */
+    public boolean cancel(Job job) {
+        synchronized (job) {
+            Status status = job.status;
+            if (status == Status.PRINTING || status == Status.PRINTED || status == Status.CANCELLED) {
+                return false;
+            }
+            job.status = Status.CANCELLED;
+            job.notifyAll();
+        }
+        delete(job);
+        fireChanged(job);
+        return true;
+    }
+
+    /**
+     * Queues a failed job again, behind the jobs already waiting for its
+     * printer.
+     */
+    public boolean retry(Job job) {
+        synchronized (job) {
+            if (job.status != Status.FAILED) {
+                return false;
+            }
+            job.status = Status.QUEUED;
+            job.attempts = 0;
+            persist(job);
+        }
+        fireChanged(job);
+        schedule(job);
+        return true;
+    }
+
+    /**
+     * Forgets printed and cancelled jobs.
+     */
+    public void clearFinished() {
+        synchronized (this) {
+            jobs.values().removeIf(job -> job.status == Status.PRINTED || job.status == Status.CANCELLED);
+        }
+        fireChanged(null);
+    }
+
+    private void restore() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Job> restored = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(JOB_EXTENSION))
+                    .forEach(path -> {
+                        Job job = load(path);
+                        if (job != null) {
+                            restored.add(job);
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Failed to read print queue: " + e.getMessage());
+            return;
+        }
+
+        restored.sort((a, b) -> Long.compare(a.id, b.id));
+        for (Job job : restored) {
+            nextId.accumulateAndGet(job.id + 1, Math::max);
+            if (job.status == Status.CANCELLED) {
+                // Left behind by an older version; never print it again
+                delete(job);
+                continue;
+            }
+            if (job.status != Status.FAILED) {
+                // Whatever it was doing when the application stopped, print it again
+                job.status = Status.QUEUED;
+            }
+            synchronized (this) {
+                jobs.put(job.id, job);
+            }
+            if (job.status == Status.QUEUED) {
+                schedule(job);
+            }
+        }
+    }
+
+    private Job load(Path path) {
+        String name = path.getFileName().toString();
+        try (InputStream in = Files.newInputStream(path)) {
+            Properties props = new Properties();
+            props.load(in);
+            long id = Long.parseLong(name.substring(0, name.length() - JOB_EXTENSION.length()));
+            return Job.fromProperties(id, props);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable print job " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void schedule(Job job) {
+        workerFor(job).execute(() -> process(job));
+    }
+
+    private synchronized ExecutorService workerFor(Job job) {
+        String key = job.target + ":" + job.printerName;
+        return workers.computeIfAbsent(key, k -> Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "print-queue-" + job.printerName);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    private void process(Job job) {
+        while (true) {
+            synchronized (job) {
+                if (job.status == Status.CANCELLED) {
+                    return;
+                }
+                job.status = Status.PRINTING;
+                job.attempts++;
+            }
+            fireChanged(job);
+
+            long start = System.nanoTime();
+            try {
+                deliver(job);
+                ReceiptMetrics.PRINT_DELIVERY.recordSince(start);
+                ReceiptMetrics.PRINT_JOB.record(
+                        Math.max(0, System.currentTimeMillis() - job.createdAt) * 1_000_000L);
+                job.lastError = null;
+                job.status = Status.PRINTED;
+                delete(job);
+                fireChanged(job);
+                return;
+            } catch (Exception e) {
+                ReceiptMetrics.PRINT_DELIVERY.recordSince(start);
+                job.lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+                System.err.println("Print job " + job.id + " failed (attempt " + job.attempts + "): "
+                        + job.lastError);
+            }
+
+            // Under the job's lock so a cancel cannot slip in between the
+            // status change and the file write and be undone by it
+            boolean failed = job.attempts >= MAX_ATTEMPTS;
+            synchronized (job) {
+                if (job.status == Status.CANCELLED) {
+                    return;
+                }
+                if (failed) {
+                    job.status = Status.FAILED;
+                } else {
+                    job.nextAttemptAt = System.currentTimeMillis() + retryDelay(job.attempts);
+                    job.status = Status.RETRYING;
+                }
+                persist(job);
+            }
+            fireChanged(job);
+            if (failed) {
+                return;
+            }
+
+            // Later jobs for this printer wait behind this one to keep their order
+            if (!awaitRetry(job)) {
+                return;
+            }
+        }
+    }
+
+    private static long retryDelay(int attempts) {
+        return Math.min(MAX_RETRY_DELAY_MILLIS, FIRST_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 16));
+    }
+
+    /**
+     * Waits until the job is due again; returns false if it was cancelled.
+     */
+    private static boolean awaitRetry(Job job) {
+        synchronized (job) {
+            try {
+                long remaining;
+                while (job.status != Status.CANCELLED
+                        && (remaining = job.nextAttemptAt - System.currentTimeMillis()) > 0) {
+                    job.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return job.status != Status.CANCELLED;
+        }
+    }
+
+    private static void deliver(Job job) throws IOException, PrinterException {
+        ReceiptDocument receipt = job.toDocument();
+
+        switch (job.target) {
+            case SYSTEM:
+                PrintService service = ReceiptPrintable.findPrintService(job.printerName);
+                if (service == null) {
+                    throw new PrinterException("Printer not found: " + job.printerName);
+                }
+                PrinterJob printerJob = PrinterJob.getPrinterJob();
+                printerJob.setPrintService(service);
+                printerJob.setJobName("Receipt " + job.id);
+                printerJob.setPrintable(new ReceiptPrintable(receipt, job.createLayout(), job.fontSize,
+                        job.lineSpacing, job.fontFamily));
+                printerJob.print(job.createPrintAttributes(service));
+                break;
+            case ESC_POS:
+                new EscPosReceiptPrinter(job.width, job.alignment, job.printerDots).print(receipt, job.printerName);
+                break;
+            case ESC_POS_RASTER:
+                new RasterReceiptPrinter(job.width, job.alignment, job.printerDots, job.fontSize,
+                        job.lineSpacing, job.fontFamily).print(receipt, job.printerName);
+                break;
+        }
+    }
+
+    private void persist(Job job) {
+        Path path = directory.resolve(job.id + JOB_EXTENSION);
+        Path temp = directory.resolve(job.id + JOB_EXTENSION + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            job.toProperties().store(bytes, "Print job");
+            Files.write(temp, bytes.toByteArray());
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Still printed, just not after a restart
+            System.err.println("Failed to save print job " + job.id + ": " + e.getMessage());
+        }
+    }
+
+    private void delete(Job job) {
+        try {
+            Files.deleteIfExists(directory.resolve(job.id + JOB_EXTENSION));
+        } catch (IOException e) {
+            System.err.println("Failed to remove print job " + job.id + ": " + e.getMessage());
+        }
+    }
+
+    private void trimHistory() {
+        int excess = jobs.size() - HISTORY_SIZE;
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext() && excess > 0; ) {
+            Job job = it.next();
+            if (job.status == Status.PRINTED || job.status == Status.CANCELLED) {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+
+    private void fireChanged(Job job) {
+        for (Listener listener : listeners) {
+            listener.jobChanged(job);
+        }
+    }
+}
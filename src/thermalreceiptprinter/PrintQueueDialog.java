@@ -0,0 +1,199 @@
+package thermalreceiptprinter;
+
+import javax.swing.*;
+import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Live view of the print queue. It is not modal, so it can stay open next to
+ * the editor while receipts are being printed.
+ */
+public class PrintQueueDialog extends JDialog {
+
+    private final PrintQueue queue;
+    private final JobTableModel tableModel = new JobTableModel();
+    private final PrintQueue.Listener listener = job -> SwingUtilities.invokeLater(this::refresh);
+
+    private JTable jobsTable;
+    private JButton retryButton;
+    private JButton cancelButton;
+    private JButton clearButton;
+    private JButton closeButton;
+
+    // Counts down the retry delays while the dialog is open
+    private final Timer refreshTimer = new Timer(1000, e -> refresh());
+
+    public PrintQueueDialog(Frame parent, PrintQueue queue) {
+        super(parent, "Print Queue", false);
+        this.queue = queue;
+        initComponents();
+        setupEventListeners();
+        refresh();
+
+        queue.addListener(listener);
+        refreshTimer.start();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+        setSize(720, 360);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        jobsTable = new JTable(tableModel);
+        jobsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        jobsTable.getColumnModel().getColumn(0).setPreferredWidth(40);
+        jobsTable.getColumnModel().getColumn(1).setPreferredWidth(140);
+        jobsTable.getColumnModel().getColumn(2).setPreferredWidth(150);
+        jobsTable.getColumnModel().getColumn(3).setPreferredWidth(60);
+        jobsTable.getColumnModel().getColumn(4).setPreferredWidth(70);
+        jobsTable.getColumnModel().getColumn(5).setPreferredWidth(240);
+
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.setBorder(new TitledBorder("Jobs"));
+        tablePanel.add(new JScrollPane(jobsTable), BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        retryButton = new JButton("Retry");
+        cancelButton = new JButton("Cancel Job");
+        clearButton = new JButton("Clear Finished");
+        closeButton = new JButton("Close");
+
+        buttonPanel.add(retryButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(clearButton);
+        buttonPanel.add(closeButton);
+
+        add(tablePanel, BorderLayout.CENTER);
+        add(buttonPanel, BorderLayout.SOUTH);
+    }
+
+    private void setupEventListeners() {
+        jobsTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                updateButtonStates();
+            }
+        });
+
+        retryButton.addActionListener(e -> {
+            PrintQueue.Job job = getSelectedJob();
+            if (job != null) {
+                queue.retry(job);
+            }
+        });
+        cancelButton.addActionListener(e -> {
+            PrintQueue.Job job = getSelectedJob();
+            if (job != null && !queue.cancel(job)) {
+                JOptionPane.showMessageDialog(this,
+                        "This job is already printing and can no longer be cancelled.",
+                        "Cancel Job",
+                        JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+        clearButton.addActionListener(e -> queue.clearFinished());
+        closeButton.addActionListener(e -> dispose());
+    }
+
+    private void refresh() {
+        PrintQueue.Job selected = getSelectedJob();
+        tableModel.setJobs(queue.getJobs());
+
+        int row = selected != null ? tableModel.indexOf(selected) : -1;
+        if (row >= 0) {
+            jobsTable.setRowSelectionInterval(row, row);
+        }
+        updateButtonStates();
+    }
+
+    private PrintQueue.Job getSelectedJob() {
+        int row = jobsTable.getSelectedRow();
+        return row >= 0 ? tableModel.getJob(row) : null;
+    }
+
+    private void updateButtonStates() {
+        PrintQueue.Job job = getSelectedJob();
+        PrintQueue.Status status = job != null ? job.getStatus() : null;
+        retryButton.setEnabled(status == PrintQueue.Status.FAILED);
+        cancelButton.setEnabled(status != null && status != PrintQueue.Status.PRINTED
+                && status != PrintQueue.Status.CANCELLED && status != PrintQueue.Status.PRINTING);
+        cancelButton.setText(status == PrintQueue.Status.FAILED ? "Remove Job" : "Cancel Job");
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        queue.removeListener(listener);
+        super.dispose();
+    }
+
+    private static final class JobTableModel extends AbstractTableModel {
+
+        private static final String[] COLUMNS = {"#", "Printer", "Status", "Attempts", "Queued", "Last Error"};
+
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        private List<PrintQueue.Job> jobs = new ArrayList<>();
+
+        void setJobs(List<PrintQueue.Job> newJobs) {
+            jobs = newJobs;
+            fireTableDataChanged();
+        }
+
+        PrintQueue.Job getJob(int row) {
+            return row < jobs.size() ? jobs.get(row) : null;
+        }
+
+        int indexOf(PrintQueue.Job job) {
+            return jobs.indexOf(job);
+        }
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            PrintQueue.Job job = jobs.get(row);
+            switch (column) {
+                case 0:
+                    return job.getId();
+                case 1:
+                    return job.getPrinterName()
+                            + (job.getTarget() != PrintQueue.Target.SYSTEM ? " (" + job.getTarget() + ")" : "");
+                case 2:
+                    return describeStatus(job);
+                case 3:
+                    return job.getAttempts();
+                case 4:
+                    return timeFormat.format(new Date(job.getCreatedAt()));
+                case 5:
+                    return job.getLastError() != null ? job.getLastError() : "";
+                default:
+                    return null;
+            }
+        }
+
+        private static String describeStatus(PrintQueue.Job job) {
+            if (job.getStatus() == PrintQueue.Status.RETRYING) {
+                long seconds = Math.max(0, (job.getNextAttemptAt() - System.currentTimeMillis() + 999) / 1000);
+                return job.getStatus() + " (" + seconds + "s)";
+            }
+            return job.getStatus().toString();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package thermalreceiptprinter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Named print routes such as "Kitchen", "Front Counter" or "Label", each
+ * pointing at a printer with its own paper width. A receipt dispatched to
+ * several routes becomes one queue job per route; the {@link PrintQueue} has a
+ * worker thread per printer, so the copies print at the same time.
+ *
+ * Routes are kept in {@code printers.properties}:
+ * <pre>
+ * routes=kitchen,front
+ * route.kitchen.name=Kitchen
+ * route.kitchen.printer=EPSON TM-T20
+ * route.kitchen.target=ESC_POS
+ * route.kitchen.width=42
+ * route.kitchen.dots=576
+ * route.kitchen.default=true
+ * </pre>
+ */
+public final class PrinterRegistry {
+
+    public static final String REGISTRY_FILE = "printers.properties";
+
+    public static final class Route {
+
+        private final String name;
+        private final String printerName;
+        private final PrintQueue.Target target;
+        private final int width;
+        private final int printerDots;
+        private final boolean printByDefault;
+
+        public Route(String name, String printerName, PrintQueue.Target target, int width, int printerDots,
+                boolean printByDefault) {
+            this.name = name;
+            this.printerName = printerName;
+            this.target = target;
+            this.width = width;
+            this.printerDots = printerDots;
+            this.printByDefault = printByDefault;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPrinterName() {
+            return printerName;
+        }
+
+        public PrintQueue.Target getTarget() {
+            return target;
+        }
+
+        /**
+         * Characters per line on this printer's paper.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Dots across the print head, for logos and raster output on ESC/POS
+         * printers.
+         */
+        public int getPrinterDots() {
+            return printerDots;
+        }
+
+        /**
+         * True if the Print button sends every receipt to this route.
+         */
+        public boolean isPrintByDefault() {
+            return printByDefault;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static PrinterRegistry instance;
+
+    private final Path file;
+    private volatile List<Route> routes;
+
+    PrinterRegistry(Path file) {
+        this.file = file;
+        this.routes = load(file);
+    }
+
+    public static synchronized PrinterRegistry getInstance() {
+        if (instance == null) {
+            instance = new PrinterRegistry(Paths.get(REGISTRY_FILE));
+        }
+        return instance;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public List<Route> getDefaultRoutes() {
+        List<Route> defaults = new ArrayList<>();
+        for (Route route : routes) {
+            if (route.isPrintByDefault()) {
+                defaults.add(route);
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * Replaces all routes and saves them.
+     */
+    public synchronized void setRoutes(List<Route> newRoutes) throws IOException {
+        List<Route> copy = Collections.unmodifiableList(new ArrayList<>(newRoutes));
+        save(copy);
+        routes = copy;
+    }
+
+    /**
+     * Queues one copy of the receipt per route, laid out for that route's
+     * paper, and returns the jobs. Routes on different printers print in
+     * parallel.
+     */
+    public List<PrintQueue.Job> dispatch(List<Route> targets, String markup, ReceiptDocument.LogoBlock logo,
+            String alignment, int fontSize, float lineSpacing, String fontFamily) {
+        PrintQueue queue = PrintQueue.getInstance();
+        List<PrintQueue.Job> jobs = new ArrayList<>(targets.size());
+        for (Route route : targets) {
+            jobs.add(queue.submit(new PrintQueue.Job(route.getTarget(), route.getPrinterName(), markup, logo,
+                    route.getWidth(), route.getPrinterDots(), alignment, fontSize, lineSpacing, fontFamily)));
+        }
+        return jobs;
+    }
+
+    private static List<Route> load(Path file) {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            System.err.println("Failed to load printer routes: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        List<Route> loaded = new ArrayList<>();
+        for (String key : props.getProperty("routes", "").split(",")) {
+            key = key.trim();
+            if (key.isEmpty()) {
+                continue;
+            }
+            String prefix = "route." + key + ".";
+            String printerName = props.getProperty(prefix + "printer");
+            if (printerName == null) {
+                System.err.println("Printer route '" + key + "' has no printer, skipping");
+                continue;
+            }
+
+            try {
+                loaded.add(new Route(
+                        props.getProperty(prefix + "name", key),
+                        printerName,
+                        PrintQueue.Target.valueOf(props.getProperty(prefix + "target", PrintQueue.Target.SYSTEM.name())),
+                        Integer.parseInt(props.getProperty(prefix + "width",
+                                String.valueOf(ReceiptLayout.TSP100_CHAR_WIDTH))),
+                        Integer.parseInt(props.getProperty(prefix + "dots",
+                                String.valueOf(EscPosReceiptPrinter.PRINTER_DOTS_80MM))),
+                        Boolean.parseBoolean(props.getProperty(prefix + "default", "false"))));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid printer route '" + key + "': " + e.getMessage());
+            }
+        }
+        return Collections.unmodifiableList(loaded);
+    }
+
+    private void save(List<Route> newRoutes) throws IOException {
+        Properties props = new Properties();
+        List<String> keys = new ArrayList<>();
+        for (Route route : newRoutes) {
+            String key = uniqueKey(route.getName(), keys);
+            keys.add(key);
+
+            String prefix = "route." + key + ".";
+            props.setProperty(prefix + "name", route.getName());
+            props.setProperty(prefix + "printer", route.getPrinterName());
+            props.setProperty(prefix + "target", route.getTarget().name());
+            props.setProperty(prefix + "width", String.valueOf(route.getWidth()));
+            props.setProperty(prefix + "dots", String.valueOf(route.getPrinterDots()));
+            props.setProperty(prefix + "default", String.valueOf(route.isPrintByDefault()));
+        }
+        props.setProperty("routes", String.join(",", keys));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        props.store(bytes, "Printer routes");
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String uniqueKey(String name, List<String> taken) {
+        String base = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_");
+        if (base.isEmpty()) {
+            base = "route";
+        }
+        String key = base;
+        for (int i = 2; taken.contains(key); i++) {
+            key = base + "_" + i;
+        }
+        return key;
+    }
+}
@@ -0,0 +1,274 @@
+package thermalreceiptprinter;
+
+import javax.swing.*;
+import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.print.PrinterJob;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.print.PrintService;
+
+/**
+ * Editor for the named print routes of {@link PrinterRegistry}.
+ */
+public class PrinterRoutesDialog extends JDialog {
+
+    private static final String PAPER_80MM = "80mm";
+    private static final String PAPER_58MM = "58mm";
+
+    private final PrinterRegistry registry;
+    private final RouteTableModel tableModel = new RouteTableModel();
+
+    private JTable routesTable;
+    private JButton addButton;
+    private JButton removeButton;
+    private JButton saveButton;
+    private JButton cancelButton;
+
+    public PrinterRoutesDialog(Frame parent, PrinterRegistry registry) {
+        super(parent, "Printer Routes", true);
+        this.registry = registry;
+        initComponents();
+        setupEventListeners();
+
+        for (PrinterRegistry.Route route : registry.getRoutes()) {
+            tableModel.rows.add(new RouteRow(route));
+        }
+        tableModel.fireTableDataChanged();
+    }
+
+    private void initComponents() {
+        setLayout(new BorderLayout());
+        setSize(760, 340);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        routesTable = new JTable(tableModel);
+        routesTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        routesTable.setRowHeight(24);
+
+        JComboBox<String> printerCombo = new JComboBox<>(getInstalledPrinters());
+        printerCombo.setEditable(true);
+        routesTable.getColumnModel().getColumn(1).setCellEditor(new DefaultCellEditor(printerCombo));
+        routesTable.getColumnModel().getColumn(2).setCellEditor(
+                new DefaultCellEditor(new JComboBox<>(PrintQueue.Target.values())));
+        routesTable.getColumnModel().getColumn(4).setCellEditor(
+                new DefaultCellEditor(new JComboBox<>(new String[]{PAPER_80MM, PAPER_58MM})));
+
+        routesTable.getColumnModel().getColumn(0).setPreferredWidth(120);
+        routesTable.getColumnModel().getColumn(1).setPreferredWidth(220);
+        routesTable.getColumnModel().getColumn(2).setPreferredWidth(100);
+        routesTable.getColumnModel().getColumn(3).setPreferredWidth(60);
+        routesTable.getColumnModel().getColumn(4).setPreferredWidth(60);
+        routesTable.getColumnModel().getColumn(5).setPreferredWidth(90);
+
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.setBorder(new TitledBorder("Routes"));
+        tablePanel.add(new JScrollPane(routesTable), BorderLayout.CENTER);
+
+        JLabel helpLabel = new JLabel("<html><small>The Print button sends each receipt to every route marked "
+                + "\"Print by default\", all at the same time.</small></html>");
+        helpLabel.setForeground(Color.GRAY);
+        helpLabel.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
+        tablePanel.add(helpLabel, BorderLayout.SOUTH);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        addButton = new JButton("Add Route");
+        removeButton = new JButton("Remove Route");
+        saveButton = new JButton("Save");
+        cancelButton = new JButton("Cancel");
+
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(cancelButton);
+
+        add(tablePanel, BorderLayout.CENTER);
+        add(buttonPanel, BorderLayout.SOUTH);
+    }
+
+    private void setupEventListeners() {
+        addButton.addActionListener(e -> {
+            String[] printers = getInstalledPrinters();
+            RouteRow row = new RouteRow();
+            row.name = "Route " + (tableModel.rows.size() + 1);
+            row.printerName = printers.length > 0 ? printers[0] : "";
+            tableModel.rows.add(row);
+            tableModel.fireTableDataChanged();
+            int index = tableModel.rows.size() - 1;
+            routesTable.setRowSelectionInterval(index, index);
+        });
+
+        removeButton.addActionListener(e -> {
+            int row = routesTable.getSelectedRow();
+            if (row >= 0) {
+                stopEditing();
+                tableModel.rows.remove(row);
+                tableModel.fireTableDataChanged();
+            }
+        });
+
+        saveButton.addActionListener(e -> save());
+        cancelButton.addActionListener(e -> dispose());
+    }
+
+    private void save() {
+        stopEditing();
+
+        List<PrinterRegistry.Route> routes = new ArrayList<>();
+        for (RouteRow row : tableModel.rows) {
+            if (row.name.trim().isEmpty() || row.printerName.trim().isEmpty()) {
+                JOptionPane.showMessageDialog(this,
+                        "Every route needs a name and a printer.",
+                        "Incomplete Route",
+                        JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            routes.add(row.toRoute());
+        }
+
+        try {
+            registry.setRoutes(routes);
+            dispose();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Failed to save printer routes: " + e.getMessage(),
+                    "Save Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void stopEditing() {
+        if (routesTable.isEditing()) {
+            routesTable.getCellEditor().stopCellEditing();
+        }
+    }
+
+    private static String[] getInstalledPrinters() {
+        PrintService[] services = PrinterJob.lookupPrintServices();
+        String[] names = new String[services.length];
+        for (int i = 0; i < services.length; i++) {
+            names[i] = services[i].getName();
+        }
+        return names;
+    }
+
+    private static final class RouteRow {
+
+        private String name = "";
+        private String printerName = "";
+        private PrintQueue.Target target = PrintQueue.Target.SYSTEM;
+        private int width = ReceiptLayout.TSP100_CHAR_WIDTH;
+        private String paper = PAPER_80MM;
+        private boolean printByDefault = false;
+
+        private RouteRow() {
+        }
+
+        private RouteRow(PrinterRegistry.Route route) {
+            this.name = route.getName();
+            this.printerName = route.getPrinterName();
+            this.target = route.getTarget();
+            this.width = route.getWidth();
+            this.paper = route.getPrinterDots() == EscPosReceiptPrinter.PRINTER_DOTS_58MM ? PAPER_58MM : PAPER_80MM;
+            this.printByDefault = route.isPrintByDefault();
+        }
+
+        private PrinterRegistry.Route toRoute() {
+            int dots = PAPER_58MM.equals(paper)
+                    ? EscPosReceiptPrinter.PRINTER_DOTS_58MM
+                    : EscPosReceiptPrinter.PRINTER_DOTS_80MM;
+            return new PrinterRegistry.Route(name.trim(), printerName.trim(), target, width, dots, printByDefault);
+        }
+    }
+
+    private static final class RouteTableModel extends AbstractTableModel {
+
+        private static final String[] COLUMNS = {"Name", "Printer", "Type", "Width", "Paper", "Print by default"};
+
+        private final List<RouteRow> rows = new ArrayList<>();
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 3:
+                    return Integer.class;
+                case 5:
+                    return Boolean.class;
+                default:
+                    return Object.class;
+            }
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return true;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            RouteRow route = rows.get(row);
+            switch (column) {
+                case 0:
+                    return route.name;
+                case 1:
+                    return route.printerName;
+                case 2:
+                    return route.target;
+                case 3:
+                    return route.width;
+                case 4:
+                    return route.paper;
+                case 5:
+                    return route.printByDefault;
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            RouteRow route = rows.get(row);
+            switch (column) {
+                case 0:
+                    route.name = String.valueOf(value);
+                    break;
+                case 1:
+                    route.printerName = value != null ? String.valueOf(value) : "";
+                    break;
+                case 2:
+                    route.target = (PrintQueue.Target) value;
+                    break;
+                case 3:
+                    if (value instanceof Integer && (Integer) value > 0) {
+                        route.width = (Integer) value;
+                    }
+                    break;
+                case 4:
+                    route.paper = String.valueOf(value);
+                    break;
+                case 5:
+                    route.printByDefault = Boolean.TRUE.equals(value);
+                    break;
+            }
+            fireTableCellUpdated(row, column);
+        }
+    }
+}
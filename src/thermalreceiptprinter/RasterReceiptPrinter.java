@@ -0,0 +1,293 @@
+package thermalreceiptprinter;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Print backend that renders the whole receipt into a packed 1-bit buffer at
+ * the printer's own resolution and sends it as an ESC/POS {@code GS v 0}
+ * raster image, or writes it as a PBM file. Nothing is rasterized by the OS
+ * driver, so the output looks the same on every machine and the render time
+ * depends only on the receipt.
+ *
+ * The text is scaled so that a full line of the layout width fills the print
+ * head; {@code [SIZE=n]} is relative to the editor's default text size, the
+ * same way the layout measures wrapped lines.
+ */
+public class RasterReceiptPrinter {
+
+    private static final int FEED_LINES_BEFORE_CUT = 5;
+
+    // Rows per GS v 0 command; small bands stay inside the receive buffer of
+    // cheaper printers
+    private static final int BAND_ROWS = 128;
+
+    // Index 0 white and index 1 black, so the image data is already in the
+    // bit order of GS v 0 and PBM
+    private static final IndexColorModel PALETTE = new IndexColorModel(1, 2,
+            new byte[]{(byte) 0xFF, 0}, new byte[]{(byte) 0xFF, 0}, new byte[]{(byte) 0xFF, 0});
+
+    /**
+     * A receipt rendered at printer resolution: one bit per dot, 1 = black,
+     * most significant bit first, rows padded to whole bytes.
+     */
+    public static final class Bitmap {
+
+        private final int width;
+        private final int height;
+        private final int bytesPerRow;
+        private final byte[] data;
+
+        private Bitmap(int width, int height, byte[] data) {
+            this.width = width;
+            this.height = height;
+            this.bytesPerRow = (width + 7) / 8;
+            this.data = data;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBytesPerRow() {
+            return bytesPerRow;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Writes the bitmap as ESC/POS {@code GS v 0} raster commands.
+         */
+        public void writeEscPos(OutputStream out) throws IOException {
+            for (int row = 0; row < height; row += BAND_ROWS) {
+                int rows = Math.min(BAND_ROWS, height - row);
+                out.write(new byte[]{
+                    0x1D, 0x76, 0x30, 0x00,
+                    (byte) bytesPerRow, (byte) (bytesPerRow >> 8),
+                    (byte) rows, (byte) (rows >> 8)
+                });
+                out.write(data, row * bytesPerRow, rows * bytesPerRow);
+            }
+        }
+
+        /**
+         * Writes the bitmap as a binary PBM (P4) image.
+         */
+        public void writePbm(OutputStream out) throws IOException {
+            out.write(("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data, 0, bytesPerRow * height);
+        }
+    }
+
+    private final ReceiptLayout layout;
+    private final int printerDots;
+    private final int printFontSize;
+    private final float lineSpacing;
+    private final String defaultFontFamily;
+    private boolean cutPaper = true;
+
+    public RasterReceiptPrinter(int width, String defaultAlignment, int printerDots, int printFontSize,
+            float lineSpacing, String defaultFontFamily) {
+        this.layout = new ReceiptLayout(width, defaultAlignment, false);
+        this.printerDots = printerDots;
+        this.printFontSize = printFontSize;
+        this.lineSpacing = lineSpacing;
+        this.defaultFontFamily = defaultFontFamily != null ? defaultFontFamily : FontResolver.FALLBACK_FAMILY;
+    }
+
+    public void setCutPaper(boolean cutPaper) {
+        this.cutPaper = cutPaper;
+    }
+
+    /**
+     * Sends the receipt to the named print service as raw bytes.
+     */
+    public void print(ReceiptDocument document, String printerName) throws IOException {
+        EscPosReceiptPrinter.send(toBytes(document), printerName);
+    }
+
+    public byte[] toBytes(ReceiptDocument document) throws IOException {
+        Bitmap bitmap = render(document);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bitmap.data.length + 64);
+        write(bitmap, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the receipt as ESC/POS commands: initialize, raster, feed, cut.
+     */
+    public void write(ReceiptDocument document, OutputStream out) throws IOException {
+        write(render(document), out);
+    }
+
+    private void write(Bitmap bitmap, OutputStream out) throws IOException {
+        out.write(new byte[]{0x1B, 0x40});
+        bitmap.writeEscPos(out);
+        out.write(new byte[]{0x1B, 0x64, FEED_LINES_BEFORE_CUT});
+        if (cutPaper) {
+            out.write(new byte[]{0x1D, 0x56, 0x01});
+        }
+        out.flush();
+    }
+
+    public void writePbm(ReceiptDocument document, OutputStream out) throws IOException {
+        render(document).writePbm(out);
+    }
+
+    public Bitmap render(ReceiptDocument document) {
+        List<ReceiptLine> lines = layout.layout(document);
+
+        // Measuring needs a Graphics with the same hints as the real one
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY, PALETTE);
+        Graphics2D measure = createGraphics(scratch);
+        float scale = getScale(measure);
+
+        int baseHeight = measure.getFontMetrics(getFont(null, false, printFontSize, scale)).getHeight();
+        int blankHeight = Math.round(baseHeight * lineSpacing / 2);
+
+        int[] baselines = new int[lines.size()];
+        int[] heights = new int[lines.size()];
+        int height = 0;
+
+        BufferedImage logoRaster = null;
+        if (document.hasLogo()) {
+            ReceiptDocument.LogoBlock logo = document.getLogo();
+            logoRaster = LogoRaster.get(logo, LogoRaster.pointsToDots(logo.getWidth()), printerDots);
+            height += logoRaster.getHeight() + blankHeight;
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            ReceiptLine line = lines.get(i);
+            if (line.isBlank()) {
+                heights[i] = blankHeight;
+            } else {
+                int ascent = 0;
+                int lineHeight = 0;
+                for (StyledRun run : line.getRuns()) {
+                    FontMetrics fm = measure.getFontMetrics(getFont(run, scale));
+                    ascent = Math.max(ascent, fm.getAscent());
+                    lineHeight = Math.max(lineHeight, fm.getHeight());
+                }
+                baselines[i] = ascent;
+                heights[i] = Math.round(lineHeight * lineSpacing);
+            }
+            height += heights[i];
+        }
+        measure.dispose();
+
+        BufferedImage image = new BufferedImage(printerDots, Math.max(1, height),
+                BufferedImage.TYPE_BYTE_BINARY, PALETTE);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int y = 0;
+
+        if (logoRaster != null) {
+            copyLogo(logoRaster, data, (printerDots + 7) / 8);
+            y += logoRaster.getHeight() + blankHeight;
+        }
+
+        Graphics2D g2d = createGraphics(image);
+        g2d.setColor(Color.BLACK);
+        for (int i = 0; i < lines.size(); i++) {
+            ReceiptLine line = lines.get(i);
+            if (!line.isBlank()) {
+                drawLine(g2d, line, y + baselines[i], scale);
+            }
+            y += heights[i];
+        }
+        g2d.dispose();
+
+        return new Bitmap(printerDots, image.getHeight(), data);
+    }
+
+    private void drawLine(Graphics2D g2d, ReceiptLine line, int baseline, float scale) {
+        List<StyledRun> runs = line.getRuns();
+        int lineWidth = 0;
+        if (line.getAlignment() != ReceiptLine.Alignment.LEFT) {
+            for (StyledRun run : runs) {
+                lineWidth += g2d.getFontMetrics(getFont(run, scale)).stringWidth(run.getText());
+            }
+        }
+
+        int x = 0;
+        if (line.getAlignment() == ReceiptLine.Alignment.CENTER) {
+            x = Math.max(0, (printerDots - lineWidth) / 2);
+        } else if (line.getAlignment() == ReceiptLine.Alignment.RIGHT) {
+            x = Math.max(0, printerDots - lineWidth);
+        }
+
+        for (StyledRun run : runs) {
+            Font font = getFont(run, scale);
+            g2d.setFont(font);
+            g2d.drawString(run.getText(), x, baseline);
+            x += g2d.getFontMetrics(font).stringWidth(run.getText());
+        }
+    }
+
+    /**
+     * Copies the logo rows into the bitmap. The logo cache may use the
+     * default 1-bit palette, where 0 is black, so rows are inverted if needed.
+     */
+    private static void copyLogo(BufferedImage logo, byte[] data, int bytesPerRow) {
+        byte[] source = ((DataBufferByte) logo.getRaster().getDataBuffer()).getData();
+        int sourceStride = (logo.getWidth() + 7) / 8;
+        int length = Math.min(sourceStride, bytesPerRow);
+        boolean invert = (logo.getColorModel().getRGB(0) & 0xFFFFFF) == 0;
+
+        for (int row = 0; row < logo.getHeight(); row++) {
+            int from = row * sourceStride;
+            int to = row * bytesPerRow;
+            for (int i = 0; i < length; i++) {
+                data[to + i] = invert ? (byte) ~source[from + i] : source[from + i];
+            }
+        }
+    }
+
+    private static Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        // Hard-edged glyphs; grey levels would only be thresholded away
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+        return g2d;
+    }
+
+    /**
+     * Dots per point of font size, chosen so a full line of the base font
+     * fills the print head.
+     */
+    private float getScale(Graphics2D g2d) {
+        Font reference = FontResolver.getFont(defaultFontFamily, Font.PLAIN, 100);
+        int advance = g2d.getFontMetrics(reference).charWidth('0');
+        float baseDots = printerDots / (float) layout.getWidth() * 100f / Math.max(1, advance);
+        return baseDots / printFontSize;
+    }
+
+    private Font getFont(StyledRun run, float scale) {
+        float size = run.hasSize() ? run.getSize() * printFontSize / (float) ReceiptLayout.DEFAULT_TEXT_SIZE
+                : printFontSize;
+        return getFont(run.hasFontFamily() ? run.getFontFamily() : null, run.isBold(), size, scale);
+    }
+
+    private Font getFont(String family, boolean bold, float size, float scale) {
+        String resolved = family != null && !family.trim().isEmpty() ? family.trim() : defaultFontFamily;
+        int dots = Math.max(1, (int) (size * scale));
+        return FontResolver.getFont(resolved, bold ? Font.BOLD : Font.PLAIN, dots);
+    }
+}
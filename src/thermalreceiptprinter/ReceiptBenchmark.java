@@ -0,0 +1,322 @@
+package thermalreceiptprinter;
+
+import java.awt.print.PrinterException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless end-to-end throughput benchmark: N receipts across M threads, each
+ * one looked up through {@link TemplateManager}, filled with data, laid out at
+ * the TSP100 width and rendered by {@link ReceiptPrintable} into an in-memory
+ * image. Used to size hardware for a store and to catch regressions in the
+ * print path.
+ *
+ * <pre>
+ * java -jar ReceiptPrinter.jar --benchmark --template NAME [--data FILE]
+ *      [--receipts N] [--threads M] [--warmup N] [--sink image|raster|escpos]
+ * </pre>
+ */
+public class ReceiptBenchmark {
+
+    public enum Sink {
+        IMAGE, RASTER, ESCPOS
+    }
+
+    /**
+     * Results of one run. Latencies are per receipt, in nanoseconds.
+     */
+    public static final class Result {
+
+        private final int receipts;
+        private final int threads;
+        private final long elapsedNanos;
+        private final long[] latencies;
+        private final long allocatedBytes;
+
+        private Result(int receipts, int threads, long elapsedNanos, long[] latencies, long allocatedBytes) {
+            this.receipts = receipts;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double getReceiptsPerSecond() {
+            return receipts / (elapsedNanos / 1e9);
+        }
+
+        public long getPercentileNanos(double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+        }
+
+        /**
+         * Bytes allocated by the worker threads, or -1 if the JVM cannot
+         * measure it.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public double getAllocationRate() {
+            return allocatedBytes < 0 ? -1 : allocatedBytes / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("Receipts:   %d on %d thread(s) in %.2f s%n",
+                    receipts, threads, elapsedNanos / 1e9));
+            out.append(String.format("Throughput: %.1f receipts/s%n", getReceiptsPerSecond()));
+            out.append(String.format("Latency:    p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    getPercentileNanos(50) / 1e6, getPercentileNanos(99) / 1e6,
+                    latencies[latencies.length - 1] / 1e6));
+            if (allocatedBytes >= 0) {
+                out.append(String.format("Allocation: %.1f MB/s, %.1f KB/receipt%n",
+                        getAllocationRate() / (1024 * 1024), allocatedBytes / 1024.0 / receipts));
+            } else {
+                out.append(String.format("Allocation: not supported by this JVM%n"));
+            }
+            return out.toString();
+        }
+    }
+
+    private String templateName;
+    private File dataFile;
+    private int receipts = 10000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int warmup = 1000;
+    private Sink sink = Sink.IMAGE;
+
+    private int width = ReceiptLayout.TSP100_CHAR_WIDTH;
+    private int fontSize = 12;
+    private float lineSpacing = 1.0f;
+    private String fontFamily = "Courier New";
+
+    private final TemplateManager templateManager = new TemplateManager();
+    private Map<String, Object> data;
+
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        ReceiptBenchmark benchmark = new ReceiptBenchmark();
+        try {
+            benchmark.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            System.out.print(benchmark.run());
+        } catch (IOException | PrinterException e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: ReceiptBenchmark --template NAME [--data FILE] [--receipts N] [--threads M]");
+        System.err.println("                        [--warmup N] [--sink image|raster|escpos]");
+        System.err.println("                        [--width CHARS] [--font-size PT] [--line-spacing X] [--font FAMILY]");
+    }
+
+    void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--template":
+                    templateName = value;
+                    break;
+                case "--data":
+                    dataFile = new File(value);
+                    break;
+                case "--receipts":
+                    receipts = parseInt(option, value);
+                    break;
+                case "--threads":
+                    threads = parseInt(option, value);
+                    break;
+                case "--warmup":
+                    warmup = parseInt(option, value);
+                    break;
+                case "--sink":
+                    try {
+                        sink = Sink.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown sink: " + value);
+                    }
+                    break;
+                case "--width":
+                    width = parseInt(option, value);
+                    break;
+                case "--font-size":
+                    fontSize = parseInt(option, value);
+                    break;
+                case "--line-spacing":
+                    try {
+                        lineSpacing = Float.parseFloat(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+                    }
+                    break;
+                case "--font":
+                    fontFamily = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        if (templateName == null) {
+            throw new IllegalArgumentException("Specify --template");
+        }
+        if (receipts < 1 || threads < 1) {
+            throw new IllegalArgumentException("--receipts and --threads must be at least 1");
+        }
+        if (warmup < 0) {
+            throw new IllegalArgumentException("--warmup must not be negative");
+        }
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    public Result run() throws IOException, PrinterException {
+        if (templateManager.getCompiledTemplate(templateName) == null) {
+            throw new IOException("Template not found or invalid: " + templateName);
+        }
+        data = loadData();
+
+        if (warmup > 0) {
+            measure(warmup);
+        }
+        return measure(receipts);
+    }
+
+    private Map<String, Object> loadData() throws IOException {
+        Properties props = new Properties();
+        if (dataFile != null) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(dataFile), StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        }
+        return ReceiptTemplate.dataFromProperties(props);
+    }
+
+    private Result measure(int count) throws IOException, PrinterException {
+        long[] latencies = new long[count];
+        AtomicInteger next = new AtomicInteger();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean measureAllocation = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "receipt-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Long>> workers = new ArrayList<>(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    long allocatedBefore = measureAllocation ? allocatedBytes(threadBean) : 0;
+                    Map<String, Object> threadData = new HashMap<>(data);
+                    StringBuilder markup = new StringBuilder();
+
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                        long receiptStart = System.nanoTime();
+                        printReceipt(i + 1, threadData, markup);
+                        latencies[i] = System.nanoTime() - receiptStart;
+                    }
+                    return measureAllocation ? allocatedBytes(threadBean) - allocatedBefore : 0L;
+                }));
+            }
+
+            long allocated = 0;
+            for (Future<Long> worker : workers) {
+                allocated += worker.get();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            return new Result(count, threads, elapsed, latencies, measureAllocation ? allocated : -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Benchmark interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof PrinterException) {
+                throw (PrinterException) cause;
+            }
+            throw new IOException("Benchmark failed: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void printReceipt(int number, Map<String, Object> threadData, StringBuilder markup)
+            throws IOException, PrinterException {
+        ReceiptTemplate template = templateManager.getCompiledTemplate(templateName);
+        threadData.put("receipt.number", number);
+        markup.setLength(0);
+        template.render(threadData, markup);
+        ReceiptDocument receipt = ReceiptDocument.parse(markup.toString(), null);
+
+        switch (sink) {
+            case IMAGE:
+                renderToImage(receipt);
+                break;
+            case RASTER:
+                new RasterReceiptPrinter(width, "LEFT", EscPosReceiptPrinter.PRINTER_DOTS_80MM, fontSize,
+                        lineSpacing, fontFamily).toBytes(receipt);
+                break;
+            case ESCPOS:
+                new EscPosReceiptPrinter(width, "LEFT").toBytes(receipt);
+                break;
+        }
+    }
+
+    private void renderToImage(ReceiptDocument receipt) throws PrinterException {
+        new ReceiptPrintable(receipt, new ReceiptLayout(width, "LEFT"), fontSize, lineSpacing, fontFamily)
+                .renderToImage(EscPosReceiptPrinter.PRINTER_DOTS_80MM);
+    }
+}
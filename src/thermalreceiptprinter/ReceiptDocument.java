@@ -0,0 +1,119 @@
+package thermalreceiptprinter;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable parsed receipt: the markup produced by the editor is parsed once
+ * into lines of styled runs and then handed unchanged to the preview, the
+ * printer and any other output backend.
+ */
+public final class ReceiptDocument {
+
+    public static final class LogoBlock {
+
+        private final BufferedImage image;
+        private final String path;
+        private final int width;
+        private final String alignment;
+        private final LogoRaster.Dithering dithering;
+
+        public LogoBlock(BufferedImage image, String path, int width, String alignment) {
+            this(image, path, width, alignment, LogoRaster.Dithering.FLOYD_STEINBERG);
+        }
+
+        public LogoBlock(BufferedImage image, String path, int width, String alignment,
+                LogoRaster.Dithering dithering) {
+            this.image = image;
+            this.path = path;
+            this.width = width;
+            this.alignment = alignment != null ? alignment : "CENTER";
+            this.dithering = dithering != null ? dithering : LogoRaster.Dithering.FLOYD_STEINBERG;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public String getAlignment() {
+            return alignment;
+        }
+
+        public LogoRaster.Dithering getDithering() {
+            return dithering;
+        }
+
+        public int getScaledHeight() {
+            return (int) (image.getHeight() * ((double) width / image.getWidth()));
+        }
+    }
+
+    private final List<ReceiptLine> lines;
+    private final LogoBlock logo;
+
+    public ReceiptDocument(List<ReceiptLine> lines, LogoBlock logo) {
+        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+        this.logo = logo;
+    }
+
+    public static ReceiptDocument parse(String markup) {
+        return parse(markup, null);
+    }
+
+    public static ReceiptDocument parse(String markup, LogoBlock logo) {
+        ReceiptEvents.MarkupParse event = new ReceiptEvents.MarkupParse();
+        event.begin();
+        List<ReceiptLine> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+
+        // One line per editor paragraph, including a trailing empty one
+        while ((end = markup.indexOf('\n', start)) >= 0) {
+            lines.add(ReceiptLine.parse(markup.substring(start, end)));
+            start = end + 1;
+        }
+        lines.add(ReceiptLine.parse(markup.substring(start)));
+
+        if (event.shouldCommit()) {
+            event.chars = markup.length();
+            event.lines = lines.size();
+            event.commit();
+        }
+        return new ReceiptDocument(lines, logo);
+    }
+
+    public List<ReceiptLine> getLines() {
+        return lines;
+    }
+
+    public LogoBlock getLogo() {
+        return logo;
+    }
+
+    public boolean hasLogo() {
+        return logo != null && logo.getImage() != null;
+    }
+
+    public ReceiptDocument withLogo(LogoBlock newLogo) {
+        return new ReceiptDocument(lines, newLogo);
+    }
+
+    public boolean isEmpty() {
+        for (ReceiptLine line : lines) {
+            if (!line.isBlank()) {
+                return false;
+            }
+        }
+        return !hasLogo();
+    }
+}
@@ -0,0 +1,154 @@
+package thermalreceiptprinter;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for each stage of the receipt pipeline, so a
+ * recording taken after a slowness complaint shows which stage was slow and
+ * on how much input. They cost next to nothing while no recording is running.
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:disk=true,maxage=1h,name=receipts -jar ReceiptPrinter.jar
+ * jcmd &lt;pid&gt; JFR.dump name=receipts filename=receipts.jfr
+ * </pre>
+ */
+public final class ReceiptEvents {
+
+    private static final String CATEGORY = "Receipt Printer";
+
+    private ReceiptEvents() {
+    }
+
+    @Name("thermalreceiptprinter.TemplateLoad")
+    @Label("Template Load")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class TemplateLoad extends Event {
+
+        @Label("Template")
+        public String template;
+
+        @Label("Characters")
+        public int chars;
+
+        @Label("Compiled Cache Hit")
+        public boolean cached;
+    }
+
+    @Name("thermalreceiptprinter.MarkupParse")
+    @Label("Markup Parse")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class MarkupParse extends Event {
+
+        @Label("Characters")
+        public int chars;
+
+        @Label("Lines")
+        public int lines;
+    }
+
+    @Name("thermalreceiptprinter.PreviewRebuild")
+    @Label("Preview Rebuild")
+    @Description("Editor change to updated preview, including the wait for the layout thread")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class PreviewRebuild extends Event {
+
+        @Label("Changed Paragraphs")
+        public int paragraphs;
+
+        @Label("Characters")
+        public int chars;
+
+        @Label("Laid Out In Background")
+        public boolean background;
+    }
+
+    @Name("thermalreceiptprinter.AutoWrap")
+    @Label("Auto Wrap")
+    @Description("Soft-wrapping a paragraph that is wider than the receipt")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class AutoWrap extends Event {
+
+        @Label("Paragraph Characters")
+        public int chars;
+
+        @Label("Lines")
+        public int lines;
+    }
+
+    @Name("thermalreceiptprinter.LogoDecode")
+    @Label("Logo Decode")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class LogoDecode extends Event {
+
+        @Label("Path")
+        public String path;
+
+        @Label("File Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+    }
+
+    @Name("thermalreceiptprinter.LogoScale")
+    @Label("Logo Scale")
+    @Description("Scaling and dithering a logo to a 1-bit raster")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class LogoScale extends Event {
+
+        @Label("Source Width")
+        public int sourceWidth;
+
+        @Label("Source Height")
+        public int sourceHeight;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Dithering")
+        public String dithering;
+    }
+
+    @Name("thermalreceiptprinter.PrintPageRender")
+    @Label("Print Page Render")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class PrintPageRender extends Event {
+
+        @Label("Page")
+        public int page;
+
+        @Label("Lines")
+        public int lines;
+
+        @Label("Width")
+        @Description("Imageable width in points")
+        public int width;
+
+        @Label("Height")
+        @Description("Height of the drawn content in points")
+        public int height;
+
+        @Label("Has Logo")
+        public boolean logo;
+    }
+}
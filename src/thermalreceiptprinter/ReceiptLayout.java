@@ -0,0 +1,388 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Lays out a {@link ReceiptDocument} for a fixed character width (45 columns
+ * on a TSP100 with 80mm paper). Tables are split into columns, over-long
+ * lines are soft-wrapped at word boundaries and alignment is resolved into
+ * leading padding, so every renderer only has to draw the returned runs from
+ * left to right.
+ *
+ * Widths are measured in columns of the default text size: by default a
+ * {@code [SIZE=28]} character takes two columns, a {@code [SIZE=7]} one half.
+ * A backend that prints sizes in steps supplies its own measure.
+ */
+public final class ReceiptLayout {
+
+    public static final int TSP100_CHAR_WIDTH = 45;
+
+    /**
+     * Editor text size that takes exactly one column.
+     */
+    public static final int DEFAULT_TEXT_SIZE = 14;
+
+    private static final int FIRST_COLUMN_WIDTH = 20;
+    private static final int COLUMN_WIDTH = 10;
+
+    private final int width;
+    private final ReceiptLine.Alignment defaultAlignment;
+    private final boolean padAlignment;
+    private final ToDoubleFunction<StyledRun> columnsPerChar;
+
+    public ReceiptLayout(int width, String defaultAlignment) {
+        this(width, defaultAlignment, true);
+    }
+
+    /**
+     * @param padAlignment false to only resolve each line's alignment and
+     * leave the justification to the output device (ESC/POS printers)
+     */
+    public ReceiptLayout(int width, String defaultAlignment, boolean padAlignment) {
+        this(width, defaultAlignment, padAlignment, ReceiptLayout::proportionalColumns);
+    }
+
+    /**
+     * @param columnsPerChar how many columns one character of a run takes on
+     * the output device
+     */
+    public ReceiptLayout(int width, String defaultAlignment, boolean padAlignment,
+            ToDoubleFunction<StyledRun> columnsPerChar) {
+        this.width = width;
+        this.defaultAlignment = ReceiptLine.Alignment.fromName(defaultAlignment);
+        this.padAlignment = padAlignment;
+        this.columnsPerChar = columnsPerChar;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public List<ReceiptLine> layout(ReceiptDocument document) {
+        List<ReceiptLine> result = new ArrayList<>(document.getLines().size());
+        for (ReceiptLine line : document.getLines()) {
+            result.addAll(layoutParagraph(line));
+        }
+        return result;
+    }
+
+    /**
+     * Lays out one editor paragraph, wrapping it onto as many lines as its
+     * text needs. Tables and rules always take a single line.
+     */
+    public List<ReceiptLine> layoutParagraph(ReceiptLine line) {
+        if (line.isBlank() || line.isRule() || containsColumnSeparator(line.getRuns())
+                || columns(line.getRuns()) <= width) {
+            return Collections.singletonList(layoutLine(line));
+        }
+
+        ReceiptEvents.AutoWrap event = new ReceiptEvents.AutoWrap();
+        event.begin();
+
+        List<List<StyledRun>> rows = wrap(line.getRuns(), width);
+        if (rows.isEmpty()) {
+            // Nothing but oversized spaces
+            rows.add(line.getRuns());
+        }
+        List<ReceiptLine> result = new ArrayList<>(rows.size());
+        for (List<StyledRun> row : rows) {
+            result.add(layoutLine(new ReceiptLine(ReceiptLine.Kind.TEXT, line.getAlignment(), row)));
+        }
+
+        if (event.shouldCommit()) {
+            event.chars = visibleLength(line.getRuns());
+            event.lines = result.size();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Lays out a single line; text that does not fit is cut off. Use
+     * {@link #layoutParagraph} to wrap it instead.
+     */
+    public ReceiptLine layoutLine(ReceiptLine line) {
+        if (line.isBlank()) {
+            return line;
+        }
+        if (line.isRule()) {
+            List<StyledRun> rule = new ArrayList<>(1);
+            rule.add(StyledRun.plain("-".repeat(width)));
+            return new ReceiptLine(ReceiptLine.Kind.RULE, ReceiptLine.Alignment.LEFT, rule);
+        }
+
+        List<StyledRun> runs = line.getRuns();
+        if (containsColumnSeparator(runs)) {
+            runs = formatTable(runs);
+        }
+
+        ReceiptLine.Alignment alignment = line.getAlignment() == ReceiptLine.Alignment.DEFAULT
+                ? defaultAlignment : line.getAlignment();
+
+        double visible = columns(runs);
+        if (visible > width) {
+            runs = truncateColumns(runs, width);
+        } else if (padAlignment && alignment == ReceiptLine.Alignment.CENTER) {
+            runs = pad(runs, (int) ((width - visible) / 2));
+        } else if (padAlignment && alignment == ReceiptLine.Alignment.RIGHT) {
+            runs = pad(runs, (int) (width - visible));
+        }
+
+        return new ReceiptLine(ReceiptLine.Kind.TEXT, alignment, runs);
+    }
+
+    private static boolean containsColumnSeparator(List<StyledRun> runs) {
+        for (StyledRun run : runs) {
+            if (run.getText().indexOf('|') >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<StyledRun> formatTable(List<StyledRun> runs) {
+        List<List<StyledRun>> cells = new ArrayList<>();
+        List<StyledRun> cell = new ArrayList<>();
+
+        for (StyledRun run : runs) {
+            String text = run.getText();
+            int start = 0;
+            int bar;
+            while ((bar = text.indexOf('|', start)) >= 0) {
+                if (bar > start) {
+                    cell.add(run.withText(text.substring(start, bar)));
+                }
+                cells.add(cell);
+                cell = new ArrayList<>();
+                start = bar + 1;
+            }
+            if (start < text.length()) {
+                cell.add(run.withText(text.substring(start)));
+            }
+        }
+        cells.add(cell);
+
+        // Like String.split, trailing empty columns are dropped
+        while (!cells.isEmpty() && visibleLength(cells.get(cells.size() - 1)) == 0) {
+            cells.remove(cells.size() - 1);
+        }
+
+        List<StyledRun> result = new ArrayList<>();
+        for (int i = 0; i < cells.size(); i++) {
+            int colWidth = (i == 0) ? FIRST_COLUMN_WIDTH : COLUMN_WIDTH;
+            List<StyledRun> content = trim(cells.get(i));
+            int visible = visibleLength(content);
+
+            if (visible > colWidth) {
+                result.addAll(truncate(content, colWidth));
+            } else {
+                result.addAll(content);
+                if (visible < colWidth) {
+                    result.add(StyledRun.plain(" ".repeat(colWidth - visible)));
+                }
+            }
+
+            if (i < cells.size() - 1) {
+                result.add(StyledRun.plain(" "));
+            }
+        }
+        return result;
+    }
+
+    private static List<StyledRun> trim(List<StyledRun> runs) {
+        List<StyledRun> result = new ArrayList<>(runs);
+
+        while (!result.isEmpty()) {
+            StyledRun first = result.get(0);
+            String text = first.getText();
+            int start = 0;
+            while (start < text.length() && text.charAt(start) <= ' ') {
+                start++;
+            }
+            if (start < text.length()) {
+                result.set(0, start == 0 ? first : first.withText(text.substring(start)));
+                break;
+            }
+            result.remove(0);
+        }
+
+        while (!result.isEmpty()) {
+            int lastIndex = result.size() - 1;
+            StyledRun last = result.get(lastIndex);
+            String text = last.getText();
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (end > 0) {
+                result.set(lastIndex, end == text.length() ? last : last.withText(text.substring(0, end)));
+                break;
+            }
+            result.remove(lastIndex);
+        }
+
+        return result;
+    }
+
+    static List<StyledRun> truncate(List<StyledRun> runs, int maxLength) {
+        List<StyledRun> result = new ArrayList<>(runs.size());
+        int remaining = maxLength;
+
+        for (StyledRun run : runs) {
+            if (remaining <= 0) {
+                break;
+            }
+            if (run.length() <= remaining) {
+                result.add(run);
+                remaining -= run.length();
+            } else {
+                result.add(run.withText(run.getText().substring(0, remaining)));
+                remaining = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits runs into rows of at most {@code maxColumns}, breaking after the
+     * last space that fits and dropping that space. A word longer than a
+     * whole row is broken where the row ends.
+     */
+    private List<List<StyledRun>> wrap(List<StyledRun> runs, int maxColumns) {
+        int length = visibleLength(runs);
+        double[] widths = new double[length];
+        char[] text = new char[length];
+        int index = 0;
+        for (StyledRun run : runs) {
+            double charColumns = columnsPerChar.applyAsDouble(run);
+            for (int i = 0; i < run.length(); i++) {
+                text[index] = run.getText().charAt(i);
+                widths[index++] = charColumns;
+            }
+        }
+
+        List<List<StyledRun>> rows = new ArrayList<>();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            double used = 0;
+            while (end < length && used + widths[end] <= maxColumns) {
+                used += widths[end++];
+            }
+            if (end == length) {
+                rows.add(slice(runs, start, end));
+                break;
+            }
+            if (end == start) {
+                // A single character wider than the row gets a row of its
+                // own, and the space after it goes like any other break
+                if (text[start] != ' ') {
+                    rows.add(slice(runs, start, start + 1));
+                }
+                start++;
+                if (start < length && text[start] == ' ') {
+                    start++;
+                }
+                continue;
+            }
+
+            int space = end;
+            while (space > start && text[space] != ' ') {
+                space--;
+            }
+            if (space > start) {
+                rows.add(slice(runs, start, space));
+                start = space + 1;
+            } else {
+                rows.add(slice(runs, start, end));
+                start = end;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the characters [from, to) of the runs, keeping their styles.
+     */
+    private static List<StyledRun> slice(List<StyledRun> runs, int from, int to) {
+        List<StyledRun> result = new ArrayList<>();
+        int position = 0;
+        for (StyledRun run : runs) {
+            int runStart = position;
+            int runEnd = position + run.length();
+            position = runEnd;
+            if (runEnd <= from || runStart >= to) {
+                continue;
+            }
+            int begin = Math.max(from, runStart) - runStart;
+            int end = Math.min(to, runEnd) - runStart;
+            result.add(begin == 0 && end == run.length() ? run : run.withText(run.getText().substring(begin, end)));
+        }
+        return result;
+    }
+
+    /**
+     * Cuts the runs off at {@code maxColumns}. The first character is always
+     * kept, so a character wider than the whole line is still printed.
+     */
+    private List<StyledRun> truncateColumns(List<StyledRun> runs, int maxColumns) {
+        List<StyledRun> result = new ArrayList<>(runs.size());
+        double remaining = maxColumns;
+
+        for (StyledRun run : runs) {
+            double charColumns = columnsPerChar.applyAsDouble(run);
+            int fit = (int) (remaining / charColumns);
+            if (fit <= 0 && result.isEmpty() && run.length() > 0) {
+                fit = 1;
+            }
+            if (fit <= 0) {
+                break;
+            }
+            if (run.length() <= fit) {
+                result.add(run);
+                remaining -= run.length() * charColumns;
+            } else {
+                result.add(run.withText(run.getText().substring(0, fit)));
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static List<StyledRun> pad(List<StyledRun> runs, int padding) {
+        if (padding <= 0) {
+            return runs;
+        }
+        List<StyledRun> result = new ArrayList<>(runs.size() + 1);
+        result.add(StyledRun.plain(" ".repeat(padding)));
+        result.addAll(runs);
+        return result;
+    }
+
+    /**
+     * Width of one character of the run when text scales with its point
+     * size, in columns of the default size.
+     */
+    static double proportionalColumns(StyledRun run) {
+        return run.hasSize() ? run.getSize() / (double) DEFAULT_TEXT_SIZE : 1.0;
+    }
+
+    private double columns(List<StyledRun> runs) {
+        double columns = 0;
+        for (StyledRun run : runs) {
+            columns += run.length() * columnsPerChar.applyAsDouble(run);
+        }
+        return columns;
+    }
+
+    static int visibleLength(List<StyledRun> runs) {
+        int length = 0;
+        for (StyledRun run : runs) {
+            length += run.length();
+        }
+        return length;
+    }
+}
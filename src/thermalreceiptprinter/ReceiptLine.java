@@ -0,0 +1,151 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One line of a receipt: a blank spacer, a [LINE] rule, or styled text with
+ * an optional [CENTER]/[RIGHT] alignment directive.
+ */
+public final class ReceiptLine {
+
+    public enum Kind {
+        TEXT, BLANK, RULE
+    }
+
+    public enum Alignment {
+        DEFAULT, LEFT, CENTER, RIGHT;
+
+        public static Alignment fromName(String name) {
+            if ("CENTER".equals(name)) {
+                return CENTER;
+            } else if ("RIGHT".equals(name)) {
+                return RIGHT;
+            }
+            return LEFT;
+        }
+    }
+
+    private static final ReceiptLine BLANK_LINE = new ReceiptLine(Kind.BLANK, Alignment.DEFAULT,
+            Collections.emptyList());
+
+    private final Kind kind;
+    private final Alignment alignment;
+    private final List<StyledRun> runs;
+    private final int visibleLength;
+
+    public ReceiptLine(Kind kind, Alignment alignment, List<StyledRun> runs) {
+        this.kind = kind;
+        this.alignment = alignment;
+        this.runs = Collections.unmodifiableList(new ArrayList<>(runs));
+
+        int length = 0;
+        for (StyledRun run : runs) {
+            length += run.length();
+        }
+        this.visibleLength = length;
+    }
+
+    public static ReceiptLine blank() {
+        return BLANK_LINE;
+    }
+
+    /**
+     * Parses a single line of markup (no newline characters).
+     */
+    public static ReceiptLine parse(String markup) {
+        List<StyledRun> runs = new ArrayList<>();
+        Alignment alignment = Alignment.DEFAULT;
+        boolean atLineStart = true;
+
+        boolean bold = false;
+        int size = 0;
+        String font = null;
+
+        for (MarkupTokenizer.Token token : MarkupTokenizer.tokenize(markup)) {
+            switch (token.getType()) {
+                case TEXT:
+                    String text = token.getText();
+                    if (atLineStart) {
+                        atLineStart = false;
+                        if (text.startsWith("[LINE]")) {
+                            return new ReceiptLine(Kind.RULE, Alignment.DEFAULT, Collections.emptyList());
+                        } else if (text.startsWith("[CENTER]")) {
+                            alignment = Alignment.CENTER;
+                            text = text.substring(8);
+                        } else if (text.startsWith("[RIGHT]")) {
+                            alignment = Alignment.RIGHT;
+                            text = text.substring(7);
+                        }
+                    }
+                    if (!text.isEmpty()) {
+                        runs.add(new StyledRun(text, bold, size, font));
+                    }
+                    break;
+                case BOLD_ON:
+                    bold = true;
+                    break;
+                case BOLD_OFF:
+                    bold = false;
+                    break;
+                case SIZE:
+                    size = Math.max(0, token.getSize());
+                    break;
+                case SIZE_OFF:
+                    size = 0;
+                    break;
+                case FONT:
+                    font = token.getFontName();
+                    break;
+                case FONT_OFF:
+                    font = null;
+                    break;
+            }
+        }
+
+        ReceiptLine line = new ReceiptLine(Kind.TEXT, alignment, runs);
+        return line.isVisiblyEmpty() ? BLANK_LINE : line;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Alignment getAlignment() {
+        return alignment;
+    }
+
+    public List<StyledRun> getRuns() {
+        return runs;
+    }
+
+    public int getVisibleLength() {
+        return visibleLength;
+    }
+
+    public boolean isBlank() {
+        return kind == Kind.BLANK;
+    }
+
+    public boolean isRule() {
+        return kind == Kind.RULE;
+    }
+
+    public String getPlainText() {
+        StringBuilder sb = new StringBuilder(visibleLength);
+        for (StyledRun run : runs) {
+            sb.append(run.getText());
+        }
+        return sb.toString();
+    }
+
+    private boolean isVisiblyEmpty() {
+        for (StyledRun run : runs) {
+            if (!run.getText().trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
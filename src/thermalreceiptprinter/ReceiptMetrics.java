@@ -0,0 +1,328 @@
+package thermalreceiptprinter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timers and cache counters for the slow parts of a terminal, published as
+ * JMX MBeans under {@code thermalreceiptprinter:*} so they can be read with
+ * JConsole or any JMX client, and dumpable to a text file.
+ *
+ * Start with {@code -Dreceipt.metrics.dump=FILE} to also write the metrics
+ * when the application exits.
+ */
+public final class ReceiptMetrics {
+
+    public static final String DOMAIN = "thermalreceiptprinter";
+    public static final String DUMP_PROPERTY = "receipt.metrics.dump";
+
+    // Recent samples kept per timer for the percentiles
+    private static final int WINDOW = 1024;
+
+    public interface TimerMXBean {
+
+        long getCount();
+
+        double getMeanMillis();
+
+        double getMaxMillis();
+
+        /**
+         * Median of the most recent samples.
+         */
+        double getP50Millis();
+
+        /**
+         * 99th percentile of the most recent samples.
+         */
+        double getP99Millis();
+
+        /**
+         * Samples slower than the timer's budget, or 0 if it has none.
+         */
+        long getOverBudgetCount();
+
+        void reset();
+    }
+
+    public interface CacheMXBean {
+
+        long getHitCount();
+
+        long getMissCount();
+
+        double getHitRate();
+
+        int getSize();
+    }
+
+    public interface MetricsMXBean {
+
+        String dump();
+
+        void dumpToFile(String path) throws IOException;
+
+        void reset();
+    }
+
+    public static final class Timer implements TimerMXBean {
+
+        private final String name;
+        private final long budgetNanos;
+        private final long[] window = new long[WINDOW];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long overBudget;
+
+        private Timer(String name) {
+            this(name, 0);
+        }
+
+        private Timer(String name, long budgetNanos) {
+            this.name = name;
+            this.budgetNanos = budgetNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized void record(long nanos) {
+            window[(int) (count % WINDOW)] = nanos;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (budgetNanos > 0 && nanos > budgetNanos) {
+                overBudget++;
+            }
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}, a value of
+         * {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public synchronized long getCount() {
+            return count;
+        }
+
+        @Override
+        public synchronized double getMeanMillis() {
+            return count == 0 ? 0.0 : totalNanos / 1e6 / count;
+        }
+
+        @Override
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public synchronized long getOverBudgetCount() {
+            return overBudget;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentile(50);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentile(99);
+        }
+
+        private synchronized double percentile(double percentile) {
+            int size = (int) Math.min(count, WINDOW);
+            if (size == 0) {
+                return 0.0;
+            }
+            long[] sorted = Arrays.copyOf(window, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public synchronized void reset() {
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            overBudget = 0;
+        }
+    }
+
+    private static final class Cache implements CacheMXBean {
+
+        private final String name;
+        private final LongSupplier hits;
+        private final LongSupplier misses;
+        private final IntSupplier size;
+
+        private Cache(String name, LongSupplier hits, LongSupplier misses, IntSupplier size) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+            this.size = size;
+        }
+
+        @Override
+        public long getHitCount() {
+            return hits.getAsLong();
+        }
+
+        @Override
+        public long getMissCount() {
+            return misses.getAsLong();
+        }
+
+        @Override
+        public double getHitRate() {
+            long hitCount = hits.getAsLong();
+            long total = hitCount + misses.getAsLong();
+            return total == 0 ? 0.0 : (double) hitCount / total;
+        }
+
+        @Override
+        public int getSize() {
+            return size.getAsInt();
+        }
+    }
+
+    private static final class Metrics implements MetricsMXBean {
+
+        @Override
+        public String dump() {
+            return ReceiptMetrics.dump();
+        }
+
+        @Override
+        public void dumpToFile(String path) throws IOException {
+            ReceiptMetrics.dumpToFile(Paths.get(path));
+        }
+
+        @Override
+        public void reset() {
+            for (Timer timer : TIMERS) {
+                timer.reset();
+            }
+        }
+    }
+
+    /**
+     * Editor change to updated preview, including the wait for the layout
+     * thread. Budgeted at one frame at 60 Hz.
+     */
+    public static final Timer PREVIEW_RENDER = new Timer("previewRender", 16_000_000L);
+    /** Editor document to receipt markup. */
+    public static final Timer SERIALIZATION = new Timer("serialization");
+    public static final Timer TEMPLATE_SAVE = new Timer("templateSave");
+    /** Print job submitted to printed, including retries. */
+    public static final Timer PRINT_JOB = new Timer("printJob");
+    /** One attempt to hand a job to the printer. */
+    public static final Timer PRINT_DELIVERY = new Timer("printDelivery");
+
+    private static final List<Timer> TIMERS = Arrays.asList(
+            PREVIEW_RENDER, SERIALIZATION, TEMPLATE_SAVE, PRINT_JOB, PRINT_DELIVERY);
+
+    private static final List<Cache> CACHES = Arrays.asList(
+            new Cache("fonts", FontResolver::getHitCount, FontResolver::getMissCount,
+                    FontResolver::getCachedFontCount),
+            new Cache("templates", TemplateManager::getCompiledHitCount, TemplateManager::getCompiledMissCount,
+                    TemplateManager::getCompiledCount));
+
+    private static boolean registered = false;
+
+    private ReceiptMetrics() {
+    }
+
+    /**
+     * Publishes the MBeans on the platform MBean server. Safe to call more
+     * than once.
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new Metrics(), new ObjectName(DOMAIN + ":type=Metrics"));
+            for (Timer timer : TIMERS) {
+                server.registerMBean(timer, new ObjectName(DOMAIN + ":type=Timer,name=" + timer.name));
+            }
+            for (Cache cache : CACHES) {
+                server.registerMBean(cache, new ObjectName(DOMAIN + ":type=Cache,name=" + cache.name));
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register metrics MBeans: " + e.getMessage());
+        }
+
+        String dumpFile = System.getProperty(DUMP_PROPERTY);
+        if (dumpFile != null && !dumpFile.trim().isEmpty()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    dumpToFile(Paths.get(dumpFile.trim()));
+                } catch (IOException e) {
+                    System.err.println("Failed to write metrics: " + e.getMessage());
+                }
+            }, "metrics-dump"));
+        }
+    }
+
+    /**
+     * All metrics as {@code name.attribute=value} lines.
+     */
+    public static String dump() {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Receipt printer metrics, "
+                + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+        for (Timer timer : TIMERS) {
+            String prefix = "timer." + timer.name + ".";
+            lines.add(prefix + "count=" + timer.getCount());
+            lines.add(prefix + "meanMillis=" + format(timer.getMeanMillis()));
+            lines.add(prefix + "p50Millis=" + format(timer.getP50Millis()));
+            lines.add(prefix + "p99Millis=" + format(timer.getP99Millis()));
+            lines.add(prefix + "maxMillis=" + format(timer.getMaxMillis()));
+            if (timer.budgetNanos > 0) {
+                lines.add(prefix + "overBudget=" + timer.getOverBudgetCount());
+            }
+        }
+        for (Cache cache : CACHES) {
+            String prefix = "cache." + cache.name + ".";
+            lines.add(prefix + "hits=" + cache.getHitCount());
+            lines.add(prefix + "misses=" + cache.getMissCount());
+            lines.add(prefix + "hitRate=" + format(cache.getHitRate()));
+            lines.add(prefix + "size=" + cache.getSize());
+        }
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+
+    public static void dumpToFile(Path file) throws IOException {
+        Files.write(file, dump().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
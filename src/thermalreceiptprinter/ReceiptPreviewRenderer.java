@@ -0,0 +1,337 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JTextPane;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+/**
+ * Keeps the preview pane in step with the editor one paragraph at a time.
+ *
+ * Every editor paragraph maps to a block of laid-out preview lines, more
+ * than one when the paragraph soft-wraps, so a wrap is only recomputed when
+ * its own paragraph is edited. Document
+ * events only splice and invalidate the affected blocks; {@link #render}
+ * re-lays-out the invalid blocks and replaces just the matching range of the
+ * preview document, leaving the rest of it (and its paragraph attributes)
+ * untouched.
+ *
+ * Rendering is split in three steps so the layout can run off the EDT:
+ * {@link #prepare} captures the markup of invalid paragraphs (EDT),
+ * {@link Snapshot#layout()} parses and lays it out (any thread) and
+ * {@link #apply} swaps the result into the preview (EDT).
+ */
+public class ReceiptPreviewRenderer {
+
+    public interface MarkupSource {
+
+        /**
+         * Returns the tagged markup for the editor text in [start, end).
+         */
+        String getMarkup(int start, int end);
+    }
+
+    private static final class Block {
+
+        // null while the paragraph is waiting for a background layout
+        private final List<ReceiptLine> lines;
+
+        private Block(List<ReceiptLine> lines) {
+            this.lines = lines;
+        }
+
+        private boolean isLaidOut() {
+            return lines != null;
+        }
+    }
+
+    /**
+     * Markup captured on the EDT for the paragraphs that need a new layout.
+     */
+    public static final class Snapshot {
+
+        private final ReceiptLayout layout;
+        private final int fontSize;
+        private final float lineSpacing;
+        private final int logoLines;
+        private final Block[] placeholders;
+        private final String[] markup;
+        private final Block[] results;
+
+        private Snapshot(ReceiptLayout layout, int fontSize, float lineSpacing, int logoLines,
+                List<Block> placeholders, List<String> markup) {
+            this.layout = layout;
+            this.fontSize = fontSize;
+            this.lineSpacing = lineSpacing;
+            this.logoLines = logoLines;
+            this.placeholders = placeholders.toArray(new Block[0]);
+            this.markup = markup.toArray(new String[0]);
+            this.results = new Block[this.markup.length];
+        }
+
+        public boolean hasWork() {
+            return markup.length > 0;
+        }
+
+        public int getParagraphCount() {
+            return markup.length;
+        }
+
+        public int getCharCount() {
+            int count = 0;
+            for (String paragraph : markup) {
+                count += paragraph.length();
+            }
+            return count;
+        }
+
+        /**
+         * Parses and lays out the captured paragraphs. Safe to call off the EDT.
+         */
+        public void layout() {
+            for (int i = 0; i < markup.length; i++) {
+                results[i] = new Block(layout.layoutParagraph(ReceiptLine.parse(markup[i])));
+            }
+        }
+    }
+
+    private final JTextPane previewPane;
+    private final List<Block> pending = new ArrayList<>();
+    private List<Block> rendered = new ArrayList<>();
+    private boolean rebuildRequested = true;
+
+    private int renderedFontSize = -1;
+    private float renderedLineSpacing = -1f;
+    private int renderedLogoLines = -1;
+
+    public ReceiptPreviewRenderer(JTextPane previewPane) {
+        this.previewPane = previewPane;
+    }
+
+    /**
+     * Records an editor change. Must be called synchronously from the
+     * editor's DocumentListener so the block list mirrors its paragraphs.
+     */
+    public void paragraphsChanged(DocumentEvent e) {
+        Document editorDoc = e.getDocument();
+        Element root = editorDoc.getDefaultRootElement();
+
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change != null) {
+            int index = change.getIndex();
+            int removed = change.getChildrenRemoved().length;
+            int added = change.getChildrenAdded().length;
+
+            if (index + removed > pending.size()) {
+                invalidate();
+                return;
+            }
+            pending.subList(index, index + removed).clear();
+            pending.addAll(index, Collections.nCopies(added, null));
+        }
+
+        if (pending.size() != root.getElementCount()) {
+            invalidate();
+            return;
+        }
+
+        int first = root.getElementIndex(e.getOffset());
+        int last = e.getType() == DocumentEvent.EventType.REMOVE
+                ? first : root.getElementIndex(e.getOffset() + e.getLength());
+        for (int i = first; i <= last && i < pending.size(); i++) {
+            pending.set(i, null);
+        }
+    }
+
+    /**
+     * Forces the next render to rebuild the whole preview.
+     */
+    public void invalidate() {
+        pending.clear();
+        rebuildRequested = true;
+    }
+
+    public void render(StyledDocument editorDoc, MarkupSource source, ReceiptLayout layout,
+            int fontSize, float lineSpacing, int logoLines) {
+        Snapshot snapshot = prepare(editorDoc, source, layout, fontSize, lineSpacing, logoLines);
+        snapshot.layout();
+        apply(snapshot);
+    }
+
+    public Snapshot prepare(StyledDocument editorDoc, MarkupSource source, ReceiptLayout layout,
+            int fontSize, float lineSpacing, int logoLines) {
+        Element root = editorDoc.getDefaultRootElement();
+        int paragraphs = root.getElementCount();
+        if (pending.size() != paragraphs) {
+            pending.clear();
+            pending.addAll(Collections.nCopies(paragraphs, null));
+            rebuildRequested = true;
+        }
+
+        List<Block> placeholders = new ArrayList<>();
+        List<String> markup = new ArrayList<>();
+        for (int i = 0; i < paragraphs; i++) {
+            Block block = pending.get(i);
+            if (block == null || !block.isLaidOut()) {
+                Element paragraph = root.getElement(i);
+                int end = Math.min(paragraph.getEndOffset(), editorDoc.getLength() + 1) - 1;
+                markup.add(source.getMarkup(paragraph.getStartOffset(), end));
+
+                Block placeholder = new Block(null);
+                placeholders.add(placeholder);
+                pending.set(i, placeholder);
+            }
+        }
+
+        return new Snapshot(layout, fontSize, lineSpacing, logoLines, placeholders, markup);
+    }
+
+    /**
+     * Installs the laid-out paragraphs of a snapshot and updates the preview.
+     * Paragraphs edited again after the snapshot was taken are left pending;
+     * returns false if such paragraphs remain and another render is needed.
+     */
+    public boolean apply(Snapshot snapshot) {
+        Map<Block, Block> results = new IdentityHashMap<>();
+        for (int i = 0; i < snapshot.placeholders.length; i++) {
+            if (snapshot.results[i] != null) {
+                results.put(snapshot.placeholders[i], snapshot.results[i]);
+            }
+        }
+
+        boolean complete = true;
+        for (int i = 0; i < pending.size(); i++) {
+            Block block = pending.get(i);
+            if (block == null || !block.isLaidOut()) {
+                Block result = block != null ? results.get(block) : null;
+                if (result != null) {
+                    pending.set(i, result);
+                } else {
+                    complete = false;
+                }
+            }
+        }
+
+        if (!complete) {
+            return false;
+        }
+
+        int fontSize = snapshot.fontSize;
+        float lineSpacing = snapshot.lineSpacing;
+        int logoLines = snapshot.logoLines;
+
+        if (fontSize != renderedFontSize || lineSpacing != renderedLineSpacing || logoLines != renderedLogoLines) {
+            rebuildRequested = true;
+        }
+
+        try {
+            if (rebuildRequested) {
+                rebuild(fontSize, lineSpacing, logoLines);
+            } else {
+                patch(fontSize, lineSpacing);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            rebuildRequested = true;
+            return true;
+        }
+
+        rendered = new ArrayList<>(pending);
+        rebuildRequested = false;
+        renderedFontSize = fontSize;
+        renderedLineSpacing = lineSpacing;
+        renderedLogoLines = logoLines;
+
+        previewPane.repaint();
+        return true;
+    }
+
+    private void rebuild(int fontSize, float lineSpacing, int logoLines) throws BadLocationException {
+        StyledDocument doc = previewPane.getStyledDocument();
+        doc.remove(0, doc.getLength());
+
+        for (int i = 0; i < logoLines; i++) {
+            doc.insertString(doc.getLength(), "\n", null);
+        }
+
+        int offset = insertBlocks(doc, doc.getLength(), pending, fontSize);
+        applyLineSpacing(doc, 0, offset, lineSpacing);
+    }
+
+    private void patch(int fontSize, float lineSpacing) throws BadLocationException {
+        int prefix = 0;
+        int maxPrefix = Math.min(rendered.size(), pending.size());
+        while (prefix < maxPrefix && rendered.get(prefix) == pending.get(prefix)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && rendered.get(rendered.size() - 1 - suffix) == pending.get(pending.size() - 1 - suffix)) {
+            suffix++;
+        }
+
+        List<Block> removed = rendered.subList(prefix, rendered.size() - suffix);
+        List<Block> added = pending.subList(prefix, pending.size() - suffix);
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+
+        int firstLine = renderedLogoLines + countLines(rendered.subList(0, prefix));
+        int removedLines = countLines(removed);
+
+        StyledDocument doc = previewPane.getStyledDocument();
+        Element root = doc.getDefaultRootElement();
+        int startOffset = root.getElement(firstLine).getStartOffset();
+        int endOffset = root.getElement(firstLine + removedLines).getStartOffset();
+
+        doc.remove(startOffset, endOffset - startOffset);
+        int insertedEnd = insertBlocks(doc, startOffset, added, fontSize);
+        applyLineSpacing(doc, startOffset, insertedEnd, lineSpacing);
+    }
+
+    private int insertBlocks(StyledDocument doc, int offset, List<Block> blocks, int fontSize)
+            throws BadLocationException {
+        for (Block block : blocks) {
+            for (ReceiptLine line : block.lines) {
+                for (StyledRun run : line.getRuns()) {
+                    doc.insertString(offset, run.getText(), createPreviewAttributes(run, fontSize));
+                    offset += run.length();
+                }
+                doc.insertString(offset, "\n", null);
+                offset++;
+            }
+        }
+        return offset;
+    }
+
+    private void applyLineSpacing(StyledDocument doc, int start, int end, float lineSpacing) {
+        if (end <= start) {
+            return;
+        }
+        SimpleAttributeSet paraAttrs = new SimpleAttributeSet();
+        StyleConstants.setLineSpacing(paraAttrs, lineSpacing - 1.0f);
+        doc.setParagraphAttributes(start, end - start, paraAttrs, false);
+    }
+
+    private static int countLines(List<Block> blocks) {
+        int lines = 0;
+        for (Block block : blocks) {
+            lines += block.lines.size();
+        }
+        return lines;
+    }
+
+    private static SimpleAttributeSet createPreviewAttributes(StyledRun run, int fontSize) {
+        SimpleAttributeSet attrs = new SimpleAttributeSet();
+        StyleConstants.setFontFamily(attrs, run.hasFontFamily() ? run.getFontFamily() : "Courier New");
+        StyleConstants.setFontSize(attrs, (int) ((run.hasSize() ? run.getSize() : fontSize) * 1.25));
+        StyleConstants.setBold(attrs, run.isBold());
+        return attrs;
+    }
+}
@@ -0,0 +1,211 @@
+package thermalreceiptprinter;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Paper;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
+import java.util.List;
+import javax.print.PrintService;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.Copies;
+import javax.print.attribute.standard.MediaPrintableArea;
+import javax.print.attribute.standard.MediaSizeName;
+import javax.print.attribute.standard.PrintQuality;
+
+public class ReceiptPrintable implements Printable {
+
+    private final ReceiptDocument document;
+    private final List<ReceiptLine> lines;
+    private final int printFontSize;
+    private final float lineSpacing;
+    private final String defaultFontFamily;
+
+    public ReceiptPrintable(ReceiptDocument document, ReceiptLayout layout, int printFontSize,
+            float lineSpacing, String defaultFontFamily) {
+        this.document = document;
+        this.lines = layout.layout(document);
+        this.printFontSize = printFontSize;
+        this.lineSpacing = lineSpacing;
+        this.defaultFontFamily = defaultFontFamily != null ? defaultFontFamily : "Courier New";
+    }
+
+    /**
+     * Looks up an installed printer by name, ignoring case.
+     */
+    public static PrintService findPrintService(String name) {
+        for (PrintService service : PrinterJob.lookupPrintServices()) {
+            if (service.getName().equalsIgnoreCase(name)) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Print attributes for the receipt paper, shared by the editor and the
+     * batch printer.
+     */
+    public static PrintRequestAttributeSet createPrintAttributes() {
+        PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
+        attributes.add(new Copies(1));
+        attributes.add(MediaSizeName.INVOICE);
+        attributes.add(PrintQuality.HIGH);
+
+        // Set margins using MediaPrintableArea (in millimeters)
+        // For 80mm paper (Invoice size is 5.5" x 8.5" or ~140mm x 216mm)
+        // 0.5 inch = 12.7 mm
+        float leftMarginMM = 12.7f;   // 0.5 inch in mm
+        float rightMarginMM = 12.7f;  // 0.5 inch in mm
+        float topMarginMM = 25.4f;    // 1.0 inch in mm (default)
+        float bottomMarginMM = 25.4f; // 1.0 inch in mm (default)
+
+        // Calculate printable area dimensions
+        // Invoice paper width is approximately 140mm
+        float paperWidthMM = 140f;
+        float paperHeightMM = 216f;
+
+        float printableWidthMM = paperWidthMM - leftMarginMM - rightMarginMM;
+        float printableHeightMM = paperHeightMM - topMarginMM - bottomMarginMM;
+
+        attributes.add(new MediaPrintableArea(
+                leftMarginMM,
+                topMarginMM,
+                printableWidthMM,
+                printableHeightMM,
+                MediaPrintableArea.MM));
+        return attributes;
+    }
+
+    /**
+     * Returns the height in points that {@link #print} uses for this receipt,
+     * so it can be drawn onto a page or image of exactly that size.
+     */
+    public int getContentHeight(Graphics g) {
+        int adjustedLineHeight = getAdjustedLineHeight(g);
+        int y = adjustedLineHeight;
+
+        if (document.hasLogo()) {
+            y += document.getLogo().getScaledHeight() + adjustedLineHeight;
+        }
+        for (ReceiptLine line : lines) {
+            y += line.isBlank() ? adjustedLineHeight / 2 : adjustedLineHeight;
+        }
+        return y;
+    }
+
+    /**
+     * Draws the receipt onto a grayscale image {@code dots} pixels wide at
+     * printer resolution, with a page exactly as tall as the content.
+     */
+    public BufferedImage renderToImage(int dots) throws PrinterException {
+        double scale = LogoRaster.PRINTER_DPI / 72.0;
+
+        BufferedImage measure = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D measureGraphics = measure.createGraphics();
+        int pageHeight = getContentHeight(measureGraphics);
+        measureGraphics.dispose();
+
+        double pageWidth = dots / scale;
+        Paper paper = new Paper();
+        paper.setSize(pageWidth, pageHeight);
+        paper.setImageableArea(0, 0, pageWidth, pageHeight);
+        PageFormat pageFormat = new PageFormat();
+        pageFormat.setPaper(paper);
+
+        BufferedImage image = new BufferedImage(dots, (int) Math.ceil(pageHeight * scale),
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.scale(scale, scale);
+        print(g2d, pageFormat, 0);
+        g2d.dispose();
+        return image;
+    }
+
+    private int getAdjustedLineHeight(Graphics g) {
+        FontMetrics fm = g.getFontMetrics(new Font("Courier New", Font.PLAIN, printFontSize));
+        return (int) (fm.getHeight() * lineSpacing);
+    }
+
+    @Override
+    public int print(Graphics g, PageFormat pf, int page) throws PrinterException {
+        if (page > 0) {
+            return NO_SUCH_PAGE;
+        }
+
+        ReceiptEvents.PrintPageRender event = new ReceiptEvents.PrintPageRender();
+        event.begin();
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.translate(pf.getImageableX(), pf.getImageableY());
+
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+        g2d.setColor(Color.BLACK);
+        int adjustedLineHeight = getAdjustedLineHeight(g2d);
+        double availableWidth = pf.getImageableWidth();
+
+        int y = adjustedLineHeight;
+
+        // Print logo if available
+        if (document.hasLogo()) {
+            ReceiptDocument.LogoBlock logo = document.getLogo();
+            int printLogoHeight = logo.getScaledHeight();
+
+            // Pre-dithered at printer resolution, so the driver gets a 1-bit image
+            Image raster = LogoRaster.get(logo, LogoRaster.pointsToDots(logo.getWidth()),
+                    LogoRaster.pointsToDots(availableWidth));
+            g2d.drawImage(raster, 0, y, (int) availableWidth, printLogoHeight, null);
+            y += printLogoHeight + adjustedLineHeight;
+        }
+
+        int printedLines = 0;
+        for (ReceiptLine line : lines) {
+            if (line.isBlank()) {
+                y += adjustedLineHeight / 2;
+                continue;
+            }
+
+            printLine(g2d, line, 0, y);
+            y += adjustedLineHeight;
+            printedLines++;
+
+            if (y > pf.getImageableHeight()) {
+                break;
+            }
+        }
+
+        g2d.dispose();
+
+        if (event.shouldCommit()) {
+            event.page = page;
+            event.lines = printedLines;
+            event.width = (int) availableWidth;
+            event.height = y;
+            event.logo = document.hasLogo();
+            event.commit();
+        }
+        return PAGE_EXISTS;
+    }
+
+    private void printLine(Graphics2D g2d, ReceiptLine line, int x, int y) {
+        int currentX = x;
+
+        for (StyledRun run : line.getRuns()) {
+            String family = run.hasFontFamily() && !run.getFontFamily().trim().isEmpty()
+                    ? run.getFontFamily().trim() : defaultFontFamily;
+            int size = run.hasSize() ? run.getSize() : printFontSize;
+
+            Font fontToUse = FontResolver.getFont(family, run.isBold() ? Font.BOLD : Font.PLAIN, size);
+            g2d.setFont(fontToUse);
+            g2d.drawString(run.getText(), currentX, y);
+            currentX += g2d.getFontMetrics(fontToUse).stringWidth(run.getText());
+        }
+    }
+}
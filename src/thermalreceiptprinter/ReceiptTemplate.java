@@ -0,0 +1,356 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A template compiled once into a tree of nodes and then rendered against any
+ * number of data maps without re-parsing.
+ *
+ * Supported placeholders:
+ * <ul>
+ * <li>{@code {{store.name}}} - a value, looked up as the dotted key itself or
+ * as a path through nested maps</li>
+ * <li>{@code {{#items}}...{{/items}}} - repeated for each element of a list,
+ * or once if the value is true or a map; skipped if missing, false or
+ * empty</li>
+ * <li>{@code {{^items}}...{{/items}}} - rendered only when {@code items} is
+ * missing, false or empty</li>
+ * <li>{@code {{.}}} - the current list element</li>
+ * </ul>
+ * Missing values render as nothing.
+ */
+public final class ReceiptTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private abstract static class Node {
+
+        abstract void render(StringBuilder out, Object[] stack, int depth);
+    }
+
+    private static final class TextNode extends Node {
+
+        private final String text;
+
+        private TextNode(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void render(StringBuilder out, Object[] stack, int depth) {
+            out.append(text);
+        }
+    }
+
+    private static final class VariableNode extends Node {
+
+        private final Name name;
+
+        private VariableNode(Name name) {
+            this.name = name;
+        }
+
+        @Override
+        void render(StringBuilder out, Object[] stack, int depth) {
+            Object value = name.lookup(stack, depth);
+            if (value != null) {
+                out.append(value);
+            }
+        }
+    }
+
+    private static final class SectionNode extends Node {
+
+        private final Name name;
+        private final boolean inverted;
+        private final Node[] children;
+
+        private SectionNode(Name name, boolean inverted, List<Node> children) {
+            this.name = name;
+            this.inverted = inverted;
+            this.children = children.toArray(new Node[0]);
+        }
+
+        @Override
+        void render(StringBuilder out, Object[] stack, int depth) {
+            Object value = name.lookup(stack, depth);
+
+            if (inverted) {
+                if (isFalsy(value)) {
+                    renderChildren(out, stack, depth);
+                }
+                return;
+            }
+            if (isFalsy(value)) {
+                return;
+            }
+
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                for (int i = 0, n = list.size(); i < n; i++) {
+                    renderChildren(out, push(stack, depth, list.get(i)), depth + 1);
+                }
+            } else if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) {
+                    renderChildren(out, push(stack, depth, item), depth + 1);
+                }
+            } else if (value instanceof Boolean) {
+                renderChildren(out, stack, depth);
+            } else {
+                renderChildren(out, push(stack, depth, value), depth + 1);
+            }
+        }
+
+        private void renderChildren(StringBuilder out, Object[] stack, int depth) {
+            for (Node child : children) {
+                child.render(out, stack, depth);
+            }
+        }
+
+        private static Object[] push(Object[] stack, int depth, Object value) {
+            if (depth == stack.length) {
+                Object[] grown = new Object[stack.length * 2];
+                System.arraycopy(stack, 0, grown, 0, stack.length);
+                stack = grown;
+            }
+            stack[depth] = value;
+            return stack;
+        }
+
+        private static boolean isFalsy(Object value) {
+            return value == null
+                    || Boolean.FALSE.equals(value)
+                    || (value instanceof Collection && ((Collection<?>) value).isEmpty());
+        }
+    }
+
+    /**
+     * A placeholder name split into its path once, at compile time.
+     */
+    private static final class Name {
+
+        private final String key;
+        private final String[] path;
+
+        private Name(String key) {
+            this.key = key;
+            this.path = key.split("\\.");
+        }
+
+        Object lookup(Object[] stack, int depth) {
+            if (".".equals(key)) {
+                // Only a section has a current item; the root map is not one
+                return depth > 1 ? stack[depth - 1] : null;
+            }
+
+            // Innermost context first, like nested scopes
+            for (int i = depth - 1; i >= 0; i--) {
+                if (!(stack[i] instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> context = (Map<?, ?>) stack[i];
+
+                Object value = context.get(key);
+                if (value != null || context.containsKey(key)) {
+                    return value;
+                }
+                if (path.length > 1 && context.containsKey(path[0])) {
+                    return walk(context.get(path[0]));
+                }
+            }
+            return null;
+        }
+
+        private Object walk(Object value) {
+            for (int i = 1; i < path.length && value != null; i++) {
+                if (value instanceof Map) {
+                    value = ((Map<?, ?>) value).get(path[i]);
+                } else if (value instanceof List) {
+                    value = elementAt((List<?>) value, path[i]);
+                } else {
+                    return null;
+                }
+            }
+            return value;
+        }
+
+        private static Object elementAt(List<?> list, String index) {
+            try {
+                int i = Integer.parseInt(index);
+                return i >= 0 && i < list.size() ? list.get(i) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Node[] nodes;
+    private final int sizeHint;
+
+    private ReceiptTemplate(List<Node> nodes, int sizeHint) {
+        this.nodes = nodes.toArray(new Node[0]);
+        this.sizeHint = sizeHint;
+    }
+
+    /**
+     * Parses the template source.
+     *
+     * @throws IllegalArgumentException if a section is not closed, closed
+     * without being opened or a placeholder is not terminated
+     */
+    public static ReceiptTemplate compile(String source) {
+        List<List<Node>> levels = new ArrayList<>();
+        List<String> openSections = new ArrayList<>();
+        List<Boolean> invertedSections = new ArrayList<>();
+        levels.add(new ArrayList<>());
+
+        int pos = 0;
+        int open;
+        while ((open = source.indexOf(OPEN, pos)) >= 0) {
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unterminated placeholder at offset " + open);
+            }
+
+            List<Node> current = levels.get(levels.size() - 1);
+            if (open > pos) {
+                current.add(new TextNode(source.substring(pos, open)));
+            }
+
+            String tag = source.substring(open + OPEN.length(), close).trim();
+            char kind = tag.isEmpty() ? ' ' : tag.charAt(0);
+
+            if (kind == '#' || kind == '^') {
+                openSections.add(tag.substring(1).trim());
+                invertedSections.add(kind == '^');
+                levels.add(new ArrayList<>());
+            } else if (kind == '/') {
+                String name = tag.substring(1).trim();
+                int last = openSections.size() - 1;
+                if (last < 0 || !openSections.get(last).equals(name)) {
+                    throw new IllegalArgumentException("Unexpected {{/" + name + "}} at offset " + open);
+                }
+                List<Node> children = levels.remove(levels.size() - 1);
+                levels.get(levels.size() - 1).add(new SectionNode(new Name(openSections.remove(last)),
+                        invertedSections.remove(last), children));
+            } else if (kind != '!') {
+                current.add(new VariableNode(new Name(tag)));
+            }
+
+            pos = close + CLOSE.length();
+            // A section tag alone on its line does not leave an empty line behind
+            if (kind == '#' || kind == '^' || kind == '/') {
+                pos += standaloneLineEnd(source, open, pos);
+            }
+        }
+
+        if (!openSections.isEmpty()) {
+            throw new IllegalArgumentException("Unclosed section {{#" + openSections.get(openSections.size() - 1) + "}}");
+        }
+        if (pos < source.length()) {
+            levels.get(0).add(new TextNode(source.substring(pos)));
+        }
+        return new ReceiptTemplate(levels.get(0), source.length());
+    }
+
+    /**
+     * Returns the length of the line end ({@code \n} or {@code \r\n})
+     * following a tag that is alone on its line, or 0 if it is not.
+     */
+    private static int standaloneLineEnd(String source, int tagStart, int tagEnd) {
+        if (tagStart > 0 && source.charAt(tagStart - 1) != '\n') {
+            return 0;
+        }
+        if (source.startsWith("\n", tagEnd)) {
+            return 1;
+        }
+        return source.startsWith("\r\n", tagEnd) ? 2 : 0;
+    }
+
+    public String render(Map<String, ?> data) {
+        StringBuilder out = new StringBuilder(sizeHint + 64);
+        render(data, out);
+        return out.toString();
+    }
+
+    public void render(Map<String, ?> data, StringBuilder out) {
+        Object[] stack = new Object[4];
+        stack[0] = data;
+        for (Node node : nodes) {
+            node.render(out, stack, 1);
+        }
+    }
+
+    /**
+     * Turns flat properties into template data. Dotted keys become nested
+     * maps and numeric segments become list indexes, so
+     * {@code items.0.name=Coffee} can be repeated with {@code {{#items}}}.
+     * The dotted keys themselves stay available as well.
+     */
+    public static Map<String, Object> dataFromProperties(Properties props) {
+        Map<String, Object> root = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            String[] path = key.split("\\.");
+            Map<String, Object> node = root;
+            for (int i = 0; i < path.length - 1; i++) {
+                node = childMap(node, path[i]);
+            }
+            node.putIfAbsent(path[path.length - 1], props.getProperty(key));
+        }
+
+        Map<String, Object> data = toLists(root);
+        for (String key : props.stringPropertyNames()) {
+            if (key.indexOf('.') >= 0) {
+                data.put(key, props.getProperty(key));
+            }
+        }
+        return data;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> childMap(Map<String, Object> node, String key) {
+        Object child = node.get(key);
+        if (!(child instanceof Map)) {
+            child = new TreeMap<String, Object>();
+            node.put(key, child);
+        }
+        return (Map<String, Object>) child;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toLists(Map<String, Object> node) {
+        for (Map.Entry<String, Object> entry : node.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                Map<String, Object> child = toLists((Map<String, Object>) entry.getValue());
+                entry.setValue(isIndexed(child) ? toList(child) : child);
+            }
+        }
+        return node;
+    }
+
+    private static boolean isIndexed(Map<String, Object> node) {
+        if (node.isEmpty()) {
+            return false;
+        }
+        for (String key : node.keySet()) {
+            if (key.isEmpty() || key.length() > 9 || !key.chars().allMatch(Character::isDigit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Object> toList(Map<String, Object> node) {
+        TreeMap<Integer, Object> ordered = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : node.entrySet()) {
+            ordered.put(Integer.parseInt(entry.getKey()), entry.getValue());
+        }
+        return new ArrayList<>(ordered.values());
+    }
+}
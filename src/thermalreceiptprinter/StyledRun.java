@@ -0,0 +1,62 @@
+package thermalreceiptprinter;
+
+/**
+ * A run of text sharing one style. A size of 0 and a null font family mean
+ * "use the renderer's default", so the same run can be drawn at preview and
+ * print scale.
+ */
+public final class StyledRun {
+
+    private final String text;
+    private final boolean bold;
+    private final int size;
+    private final String fontFamily;
+
+    public StyledRun(String text, boolean bold, int size, String fontFamily) {
+        this.text = text;
+        this.bold = bold;
+        this.size = size;
+        this.fontFamily = fontFamily;
+    }
+
+    public static StyledRun plain(String text) {
+        return new StyledRun(text, false, 0, null);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isBold() {
+        return bold;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean hasSize() {
+        return size > 0;
+    }
+
+    public String getFontFamily() {
+        return fontFamily;
+    }
+
+    public boolean hasFontFamily() {
+        return fontFamily != null;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    public StyledRun withText(String newText) {
+        return new StyledRun(newText, bold, size, fontFamily);
+    }
+
+    public boolean sameStyle(StyledRun other) {
+        return bold == other.bold && size == other.size
+                && (fontFamily == null ? other.fontFamily == null : fontFamily.equals(other.fontFamily));
+    }
+}
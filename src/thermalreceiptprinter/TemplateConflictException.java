@@ -0,0 +1,40 @@
+package thermalreceiptprinter;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a template was saved or deleted by someone else (another
+ * terminal sharing the templates directory) after the caller last read it.
+ */
+public class TemplateConflictException extends IOException {
+
+    private final String templateName;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public TemplateConflictException(String templateName, long expectedVersion, long actualVersion) {
+        super(actualVersion == TemplateStore.NO_VERSION
+                ? "Template '" + templateName + "' was deleted by another terminal"
+                : expectedVersion == TemplateStore.NO_VERSION
+                        ? "Template '" + templateName + "' was created by another terminal"
+                        : "Template '" + templateName + "' was changed by another terminal");
+        this.templateName = templateName;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Returns the version now on disk, or 0 if the template is gone.
+     */
+    public long getActualVersion() {
+        return actualVersion;
+    }
+}
@@ -3,6 +3,8 @@ package thermalreceiptprinter;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.text.SimpleDateFormat;
 
 public class TemplateManager {
@@ -11,10 +13,46 @@ public class TemplateManager {
     private static final String TEMPLATE_EXTENSION = ".template";
     private static final String TEMPLATE_INFO_EXTENSION = ".info";
 
+    /**
+     * Expected version for {@link #saveTemplate(String, String, String, String, Integer, String, long)}
+     * that overwrites whatever is there.
+     */
+    public static final long ANY_VERSION = TemplateStore.ANY_VERSION;
+
+    /**
+     * Version of a template that does not exist.
+     */
+    public static final long NO_VERSION = TemplateStore.NO_VERSION;
+
+    // Shared by all managers so the store is only loaded once per process
+    private static final TemplateStore STORE = createStore();
+
+    // Compiled templates shared by all managers, keyed by file name
+    private static final Map<String, CompiledEntry> COMPILED = new ConcurrentHashMap<>();
+    private static final LongAdder COMPILED_HITS = new LongAdder();
+    private static final LongAdder COMPILED_MISSES = new LongAdder();
+
+    // Word index for searchTemplates, kept in step with the store
+    private static final TemplateSearchIndex SEARCH = new TemplateSearchIndex();
+
     public TemplateManager() {
         ensureTemplatesDirectory();
     }
 
+    /**
+     * Uses the packed single-file store when {@code templates/templates.pack}
+     * exists or {@code -Dreceipt.templates.store=packed} is set, otherwise
+     * one file pair per template.
+     */
+    private static TemplateStore createStore() {
+        Path templatesPath = Paths.get(TEMPLATES_DIR);
+        if ("packed".equals(System.getProperty("receipt.templates.store"))
+                || PackedTemplateStore.exists(templatesPath)) {
+            return new PackedTemplateStore(templatesPath);
+        }
+        return new DirectoryTemplateStore(templatesPath, TEMPLATE_EXTENSION, TEMPLATE_INFO_EXTENSION);
+    }
+
     private void ensureTemplatesDirectory() {
         try {
             Path templatesPath = Paths.get(TEMPLATES_DIR);
@@ -28,24 +66,53 @@ public class TemplateManager {
 
     public boolean saveTemplate(String templateName, String content, String description,
             String logoPath, Integer logoWidth, String logoAlignment) {
+        try {
+            return saveTemplate(templateName, content, description, logoPath, logoWidth, logoAlignment,
+                    ANY_VERSION);
+        } catch (TemplateConflictException e) {
+            // Not checked for ANY_VERSION
+            return false;
+        }
+    }
+
+    /**
+     * Saves the template only if nobody else has saved or deleted it since
+     * the caller saw {@code expectedVersion} (see {@link #getTemplateVersion}).
+     * Pass {@link #NO_VERSION} when creating a template that must not exist
+     * yet.
+     *
+     * @throws TemplateConflictException if another terminal got there first;
+     * nothing was written
+     */
+    public boolean saveTemplate(String templateName, String content, String description,
+            String logoPath, Integer logoWidth, String logoAlignment, long expectedVersion)
+            throws TemplateConflictException {
         if (templateName == null || templateName.trim().isEmpty()) {
             return false;
         }
 
+        long start = System.nanoTime();
         try {
             String fileName = sanitizeFileName(templateName);
 
-            Path templatePath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_EXTENSION);
-            Files.write(templatePath, content.getBytes("UTF-8"));
-
             TemplateInfo info = new TemplateInfo(templateName, description, new Date(),
                     logoPath, logoWidth, logoAlignment);
-            saveTemplateInfo(fileName, info);
+            STORE.write(fileName, content, info, expectedVersion);
+            COMPILED.remove(fileName);
+
+            TemplateStore.Entry entry = STORE.get(fileName);
+            if (entry != null) {
+                SEARCH.put(entry, content);
+            }
 
             return true;
+        } catch (TemplateConflictException e) {
+            throw e;
         } catch (IOException e) {
             System.err.println("Failed to save template: " + e.getMessage());
             return false;
+        } finally {
+            ReceiptMetrics.TEMPLATE_SAVE.recordSince(start);
         }
     }
 
@@ -55,81 +122,201 @@ public class TemplateManager {
     }
 
     public String loadTemplate(String templateName) {
+        ReceiptEvents.TemplateLoad event = new ReceiptEvents.TemplateLoad();
+        event.begin();
+        try {
+            String content = STORE.read(sanitizeFileName(templateName));
+            commit(event, templateName, content != null ? content.length() : 0, false);
+            return content;
+        } catch (IOException e) {
+            System.err.println("Failed to load template: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the template compiled for rendering with data, compiling it
+     * only when it is first used or its file has changed.
+     */
+    public ReceiptTemplate getCompiledTemplate(String templateName) {
+        ReceiptEvents.TemplateLoad event = new ReceiptEvents.TemplateLoad();
+        event.begin();
         try {
             String fileName = sanitizeFileName(templateName);
-            Path templatePath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_EXTENSION);
+            TemplateStore.Entry indexEntry = STORE.get(fileName);
 
-            if (!Files.exists(templatePath)) {
+            if (indexEntry == null) {
+                COMPILED.remove(fileName);
+                commit(event, templateName, 0, false);
                 return null;
             }
 
-            return new String(Files.readAllBytes(templatePath), "UTF-8");
-        } catch (IOException e) {
-            System.err.println("Failed to load template: " + e.getMessage());
+            CompiledEntry entry = COMPILED.get(fileName);
+            if (entry != null && entry.contentHash == indexEntry.getContentHash()) {
+                COMPILED_HITS.increment();
+                commit(event, templateName, 0, true);
+                return entry.template;
+            }
+            COMPILED_MISSES.increment();
+
+            String content = STORE.read(fileName);
+            if (content == null) {
+                commit(event, templateName, 0, false);
+                return null;
+            }
+            ReceiptTemplate template = ReceiptTemplate.compile(content);
+            COMPILED.put(fileName, new CompiledEntry(template, indexEntry.getContentHash()));
+            commit(event, templateName, content.length(), false);
+            return template;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to compile template: " + e.getMessage());
             return null;
         }
     }
 
+    private static void commit(ReceiptEvents.TemplateLoad event, String templateName, int chars, boolean cached) {
+        if (event.shouldCommit()) {
+            event.template = templateName;
+            event.chars = chars;
+            event.cached = cached;
+            event.commit();
+        }
+    }
+
     public TemplateInfo getTemplateInfo(String templateName) {
         try {
-            String fileName = sanitizeFileName(templateName);
-            return loadTemplateInfo(fileName);
+            TemplateStore.Entry entry = STORE.get(sanitizeFileName(templateName));
+            return entry != null ? entry.getInfo() : null;
         } catch (Exception e) {
             System.err.println("Failed to load template info: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Returns the version stamp of the template as last seen by this
+     * process, or {@link #NO_VERSION} if it does not exist.
+     */
+    public long getTemplateVersion(String templateName) {
+        TemplateStore.Entry entry = STORE.get(sanitizeFileName(templateName));
+        return entry != null ? entry.getVersion() : NO_VERSION;
+    }
+
     public boolean deleteTemplate(String templateName) {
         try {
             String fileName = sanitizeFileName(templateName);
-
-            Path templatePath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_EXTENSION);
-            boolean templateDeleted = Files.deleteIfExists(templatePath);
-
-            Path infoPath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_INFO_EXTENSION);
-            Files.deleteIfExists(infoPath);
-
-            return templateDeleted;
+            COMPILED.remove(fileName);
+            SEARCH.remove(fileName);
+            return STORE.delete(fileName);
         } catch (IOException e) {
             System.err.println("Failed to delete template: " + e.getMessage());
             return false;
         }
     }
 
+    static long getCompiledHitCount() {
+        return COMPILED_HITS.sum();
+    }
+
+    static long getCompiledMissCount() {
+        return COMPILED_MISSES.sum();
+    }
+
+    static int getCompiledCount() {
+        return COMPILED.size();
+    }
+
     public List<String> listTemplates() {
-        List<String> templates = new ArrayList<>();
+        return new ArrayList<>(STORE.getDisplayNames());
+    }
 
-        try {
-            Path templatesPath = Paths.get(TEMPLATES_DIR);
-            if (!Files.exists(templatesPath)) {
-                return templates;
-            }
+    /**
+     * Returns the info of every template sorted by display name, from memory.
+     * Templates saved without an .info file get a default one.
+     */
+    public List<TemplateInfo> listTemplateInfos() {
+        List<TemplateInfo> infos = new ArrayList<>();
+        for (TemplateStore.Entry entry : STORE.getEntries()) {
+            TemplateInfo info = entry.getInfo();
+            infos.add(info != null ? info
+                    : new TemplateInfo(entry.getFileName(), "", new Date(entry.getLastModified())));
+        }
+        infos.sort(Comparator.comparing(TemplateInfo::getDisplayName));
+        return infos;
+    }
 
-            Files.list(templatesPath)
-                    .filter(path -> path.toString().endsWith(TEMPLATE_EXTENSION))
-                    .forEach(path -> {
-                        String fileName = path.getFileName().toString();
-                        String templateName = fileName.substring(0, fileName.length() - TEMPLATE_EXTENSION.length());
+    /**
+     * Returns the templates whose name, description or content contains
+     * words starting with every word of the query, ordered by display name.
+     * A blank query returns all templates without touching the search index.
+     *
+     * The first search reads every template body, so call it off the EDT.
+     */
+    public List<TemplateInfo> searchTemplates(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return listTemplateInfos();
+        }
 
-                        try {
-                            TemplateInfo info = loadTemplateInfo(templateName);
-                            if (info != null) {
-                                templates.add(info.getDisplayName());
-                            } else {
-                                templates.add(templateName);
-                            }
-                        } catch (Exception e) {
-                            templates.add(templateName);
-                        }
-                    });
+        // One snapshot of the store for indexing and for the results
+        Map<String, TemplateStore.Entry> entries = new HashMap<>();
+        for (TemplateStore.Entry entry : STORE.getEntries()) {
+            entries.put(entry.getFileName(), entry);
+        }
+        updateSearchIndex(entries.values());
 
-            Collections.sort(templates);
-        } catch (IOException e) {
-            System.err.println("Failed to list templates: " + e.getMessage());
+        List<TemplateInfo> infos = new ArrayList<>();
+        for (String fileName : SEARCH.search(query)) {
+            TemplateStore.Entry entry = entries.get(fileName);
+            if (entry == null) {
+                continue;
+            }
+            TemplateInfo info = entry.getInfo();
+            infos.add(info != null ? info
+                    : new TemplateInfo(fileName, "", new Date(entry.getLastModified())));
         }
+        return infos;
+    }
 
-        return templates;
+    /**
+     * Brings the search index up to date, so the first search after opening
+     * the template manager does not have to read every body. Call it off the
+     * EDT.
+     */
+    public void prepareSearch() {
+        updateSearchIndex(STORE.getEntries());
+    }
+
+    /**
+     * Indexes templates that are new or were changed outside this manager
+     * (another process, the directory watcher). Unchanged entries are
+     * skipped without reading their content.
+     */
+    private static void updateSearchIndex(Collection<TemplateStore.Entry> entries) {
+        // One indexer at a time, so a body is not read twice
+        synchronized (SEARCH) {
+            Set<String> stale = SEARCH.getFileNames();
+            for (TemplateStore.Entry entry : entries) {
+                stale.remove(entry.getFileName());
+                if (SEARCH.isCurrent(entry)) {
+                    continue;
+                }
+                try {
+                    SEARCH.put(entry, STORE.read(entry.getFileName()));
+                } catch (IOException e) {
+                    System.err.println("Failed to index template " + entry.getFileName() + ": " + e.getMessage());
+                }
+            }
+            for (String fileName : stale) {
+                SEARCH.remove(fileName);
+            }
+        }
+    }
+
+    /**
+     * Reloads the template store on the next access.
+     */
+    public void refresh() {
+        STORE.invalidateAll();
     }
 
     public boolean exportTemplate(String templateName, File exportFile) {
@@ -207,74 +394,21 @@ public class TemplateManager {
     }
 
     public boolean templateExists(String templateName) {
-        String fileName = sanitizeFileName(templateName);
-        Path templatePath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_EXTENSION);
-        return Files.exists(templatePath);
+        return STORE.get(sanitizeFileName(templateName)) != null;
     }
 
     private String sanitizeFileName(String name) {
         return name.replaceAll("[^a-zA-Z0-9._-]", "_");
     }
 
-    private void saveTemplateInfo(String fileName, TemplateInfo info) {
-        try {
-            Path infoPath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_INFO_EXTENSION);
-            Properties props = new Properties();
-            props.setProperty("displayName", info.getDisplayName());
-            props.setProperty("description", info.getDescription());
-            props.setProperty("createdDate", String.valueOf(info.getCreatedDate().getTime()));
-
-            if (info.getLogoPath() != null) {
-                props.setProperty("logoPath", info.getLogoPath());
-                props.setProperty("logoWidth", String.valueOf(info.getLogoWidth()));
-                props.setProperty("logoAlignment", info.getLogoAlignment());
-            }
-
-            try (FileOutputStream fos = new FileOutputStream(infoPath.toFile())) {
-                props.store(fos, "Template Information");
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to save template info: " + e.getMessage());
-        }
-    }
-
-    private TemplateInfo loadTemplateInfo(String fileName) {
-        try {
-            Path infoPath = Paths.get(TEMPLATES_DIR, fileName + TEMPLATE_INFO_EXTENSION);
-            if (!Files.exists(infoPath)) {
-                return null;
-            }
-
-            Properties props = new Properties();
-            try (FileInputStream fis = new FileInputStream(infoPath.toFile())) {
-                props.load(fis);
-            }
-
-            String displayName = props.getProperty("displayName", fileName);
-            String description = props.getProperty("description", "");
-            long timestamp = Long.parseLong(props.getProperty("createdDate", "0"));
-            Date createdDate = timestamp > 0 ? new Date(timestamp) : new Date();
+    private static final class CompiledEntry {
 
-            String logoPath = props.getProperty("logoPath", null);
-            Integer logoWidth = 150;
-            String logoAlignment = "CENTER";
-
-            if (props.containsKey("logoWidth")) {
-                try {
-                    logoWidth = Integer.parseInt(props.getProperty("logoWidth"));
-                } catch (NumberFormatException e) {
-                    logoWidth = 150;
-                }
-            }
-
-            if (props.containsKey("logoAlignment")) {
-                logoAlignment = props.getProperty("logoAlignment");
-            }
+        private final ReceiptTemplate template;
+        private final long contentHash;
 
-            return new TemplateInfo(displayName, description, createdDate, logoPath, logoWidth, logoAlignment);
-        } catch (Exception e) {
-            System.err.println("Failed to load template info: " + e.getMessage());
-            return null;
+        private CompiledEntry(ReceiptTemplate template, long contentHash) {
+            this.template = template;
+            this.contentHash = contentHash;
         }
     }
 
@@ -332,5 +466,44 @@ public class TemplateManager {
         public String getFormattedDate() {
             return new SimpleDateFormat("MMM dd, yyyy HH:mm").format(createdDate);
         }
+
+        Properties toProperties() {
+            Properties props = new Properties();
+            props.setProperty("displayName", displayName);
+            props.setProperty("description", description);
+            props.setProperty("createdDate", String.valueOf(createdDate.getTime()));
+
+            if (logoPath != null) {
+                props.setProperty("logoPath", logoPath);
+                props.setProperty("logoWidth", String.valueOf(getLogoWidth()));
+                props.setProperty("logoAlignment", getLogoAlignment());
+            }
+            return props;
+        }
+
+        static TemplateInfo fromProperties(Properties props, String fileName) {
+            String displayName = props.getProperty("displayName", fileName);
+            String description = props.getProperty("description", "");
+            long timestamp = Long.parseLong(props.getProperty("createdDate", "0"));
+            Date createdDate = timestamp > 0 ? new Date(timestamp) : new Date();
+
+            String logoPath = props.getProperty("logoPath", null);
+            Integer logoWidth = 150;
+            String logoAlignment = "CENTER";
+
+            if (props.containsKey("logoWidth")) {
+                try {
+                    logoWidth = Integer.parseInt(props.getProperty("logoWidth"));
+                } catch (NumberFormatException e) {
+                    logoWidth = 150;
+                }
+            }
+
+            if (props.containsKey("logoAlignment")) {
+                logoAlignment = props.getProperty("logoAlignment");
+            }
+
+            return new TemplateInfo(displayName, description, createdDate, logoPath, logoWidth, logoAlignment);
+        }
     }
 }
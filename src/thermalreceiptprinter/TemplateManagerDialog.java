@@ -2,6 +2,8 @@ package thermalreceiptprinter;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
@@ -9,13 +11,34 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TemplateManagerDialog extends JDialog {
 
-    private JList<String> templatesList;
-    private DefaultListModel<String> listModel;
+    private static final Icon TEMPLATE_ICON = new TemplateIcon();
+    private static final Icon TEMPLATE_WITH_LOGO_ICON = new TemplateIconWithLogo();
+
+    private static final int THUMBNAIL_CACHE_SIZE = 32;
+
+    // Scaled logos shared across dialogs, keyed by path, mtime and size
+    private static final Map<String, BufferedImage> THUMBNAILS =
+            new LinkedHashMap<String, BufferedImage>(THUMBNAIL_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > THUMBNAIL_CACHE_SIZE;
+        }
+    };
+
+    private JList<TemplateListItem> templatesList;
+    private DefaultListModel<TemplateListItem> listModel;
+    private JTextField searchField;
+    private JLabel countLabel;
     private JTextArea previewArea;
     private JTextArea infoArea;
     private JButton loadButton;
@@ -28,6 +51,22 @@ public class TemplateManagerDialog extends JDialog {
     private TemplateManager templateManager;
     private JLabel logoPreviewLabel;
 
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "template-preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pendingPreview;
+    private int previewGeneration = 0;
+
+    // Searches read template bodies, so they never run on the EDT
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "template-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int searchGeneration = 0;
+
     public TemplateManagerDialog(MainFrame parent) {
         super(parent, "Template Manager", true);
         this.parentFrame = parent;
@@ -35,6 +74,7 @@ public class TemplateManagerDialog extends JDialog {
         initComponents();
         loadTemplatesList();
         setupEventListeners();
+        searchExecutor.submit(templateManager::prepareSearch);
     }
 
     private void initComponents() {
@@ -56,6 +96,11 @@ public class TemplateManagerDialog extends JDialog {
         panel.setBorder(new TitledBorder("Available Templates"));
         panel.setPreferredSize(new Dimension(250, 400));
 
+        searchField = new JTextField();
+        searchField.putClientProperty("JTextField.placeholderText", "Search templates");
+        searchField.setToolTipText("Search names, descriptions and content");
+        panel.add(searchField, BorderLayout.NORTH);
+
         listModel = new DefaultListModel<>();
         templatesList = new JList<>(listModel);
         templatesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -64,7 +109,7 @@ public class TemplateManagerDialog extends JDialog {
         JScrollPane scrollPane = new JScrollPane(templatesList);
         panel.add(scrollPane, BorderLayout.CENTER);
 
-        JLabel countLabel = new JLabel("0 templates");
+        countLabel = new JLabel("0 templates");
         countLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         panel.add(countLabel, BorderLayout.SOUTH);
 
@@ -176,6 +221,28 @@ public class TemplateManagerDialog extends JDialog {
             }
         });
 
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                loadTemplatesList();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                loadTemplatesList();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        searchField.addActionListener(e -> {
+            if (!listModel.isEmpty()) {
+                templatesList.setSelectedIndex(0);
+                templatesList.requestFocusInWindow();
+            }
+        });
+
         loadButton.addActionListener(e -> loadSelectedTemplate());
         deleteButton.addActionListener(e -> deleteSelectedTemplate());
         exportButton.addActionListener(e -> exportSelectedTemplate());
@@ -184,26 +251,58 @@ public class TemplateManagerDialog extends JDialog {
         closeButton.addActionListener(e -> dispose());
     }
 
+    /**
+     * Shows all templates straight from the in-memory index, or the matches
+     * of the search field once the background search is done.
+     */
     private void loadTemplatesList() {
-        listModel.clear();
-        List<String> templates = templateManager.listTemplates();
-        for (String template : templates) {
-            listModel.addElement(template);
+        String query = searchField.getText().trim();
+        final int generation = ++searchGeneration;
+
+        if (query.isEmpty()) {
+            showTemplates(templateManager.listTemplateInfos(), query);
+            return;
         }
 
-        Component[] components = ((JPanel) getContentPane().getComponent(0)).getComponents();
-        for (Component comp : components) {
-            if (comp instanceof JLabel) {
-                ((JLabel) comp).setText(templates.size() + " template" + (templates.size() != 1 ? "s" : ""));
-                break;
+        countLabel.setText("Searching...");
+        searchExecutor.submit(() -> {
+            List<TemplateManager.TemplateInfo> templates = templateManager.searchTemplates(query);
+            SwingUtilities.invokeLater(() -> {
+                // Results of an older query are dropped
+                if (generation == searchGeneration) {
+                    showTemplates(templates, query);
+                }
+            });
+        });
+    }
+
+    private void showTemplates(List<TemplateManager.TemplateInfo> templates, String query) {
+        String selected = getSelectedTemplateName();
+
+        listModel.clear();
+        for (TemplateManager.TemplateInfo template : templates) {
+            listModel.addElement(new TemplateListItem(template));
+            if (template.getDisplayName().equals(selected)) {
+                templatesList.setSelectedIndex(listModel.size() - 1);
             }
         }
 
+        String count = templates.size() + " template" + (templates.size() != 1 ? "s" : "");
+        countLabel.setText(query.isEmpty() ? count : count + " matching");
+
         updateButtonStates();
     }
 
     private void updatePreviewAndInfo() {
-        String selectedTemplate = templatesList.getSelectedValue();
+        String selectedTemplate = getSelectedTemplateName();
+
+        // Anything still loading belongs to an older selection
+        if (pendingPreview != null) {
+            pendingPreview.cancel(true);
+            pendingPreview = null;
+        }
+        final int generation = ++previewGeneration;
+
         if (selectedTemplate == null) {
             previewArea.setText("Select a template to preview its content");
             infoArea.setText("Select a template to view its information");
@@ -213,73 +312,56 @@ public class TemplateManagerDialog extends JDialog {
             return;
         }
 
-        String content = templateManager.loadTemplate(selectedTemplate);
+        int labelWidth = logoPreviewLabel.getPreferredSize().width; // 450
+        int labelHeight = logoPreviewLabel.getPreferredSize().height; // 120
+
+        pendingPreview = previewExecutor.submit(() -> {
+            TemplatePreview preview = loadPreview(selectedTemplate, labelWidth, labelHeight);
+            if (preview != null) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == previewGeneration) {
+                        showPreview(preview);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads and formats everything the preview shows. Runs on the preview
+     * executor; returns null if the selection changed in the meantime.
+     */
+    private TemplatePreview loadPreview(String templateName, int labelWidth, int labelHeight) {
+        TemplatePreview preview = new TemplatePreview();
+
+        String content = templateManager.loadTemplate(templateName);
         if (content != null) {
-            String processedContent = processTemplateForPreview(content);
-            previewArea.setText(processedContent);
-            previewArea.setCaretPosition(0);
+            preview.previewText = processTemplateForPreview(content);
         } else {
-            previewArea.setText("Error loading template content");
+            preview.previewText = "Error loading template content";
         }
 
-        TemplateManager.TemplateInfo info = templateManager.getTemplateInfo(selectedTemplate);
-
-        // --- LOGO PREVIEW DISPLAY FIX START ---
-        logoPreviewLabel.setIcon(null);
-        logoPreviewLabel.setText(null); // Fix 2: Ensure logo name is cleared/not set
-        logoPreviewLabel.setVisible(false);
+        TemplateManager.TemplateInfo info = templateManager.getTemplateInfo(templateName);
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
 
         if (info != null && info.hasLogo()) {
             File logoFile = new File(info.getLogoPath());
 
             if (logoFile.exists()) {
                 try {
-                    // Load the original image
-                    BufferedImage originalImage = ImageIO.read(logoFile);
-                    int labelWidth = logoPreviewLabel.getPreferredSize().width; // 450
-                    int labelHeight = logoPreviewLabel.getPreferredSize().height; // 120
-
-                    int imageWidth = originalImage.getWidth();
-                    int imageHeight = originalImage.getHeight();
-
-                    // Calculate scaling ratio to fit within the label bounds
-                    double scale = Math.min((double) labelWidth / imageWidth, (double) labelHeight / imageHeight);
-                    int scaledWidth = (int) (imageWidth * scale * 0.9); // Use 90% of max size for padding
-                    int scaledHeight = (int) (imageHeight * scale * 0.9);
-
-                    // Scale the image and set the icon
-                    Image scaledImage = originalImage.getScaledInstance(scaledWidth, scaledHeight, Image.SCALE_SMOOTH);
-                    logoPreviewLabel.setIcon(new ImageIcon(scaledImage));
-
-                    // Fix 1: Set alignment for the logo icon
-                    String logoAlignment = info.getLogoAlignment();
-                    if ("LEFT".equals(logoAlignment)) {
-                        logoPreviewLabel.setHorizontalAlignment(JLabel.LEFT);
-                    } else if ("RIGHT".equals(logoAlignment)) {
-                        logoPreviewLabel.setHorizontalAlignment(JLabel.RIGHT);
-                    } else { // CENTER or default
-                        logoPreviewLabel.setHorizontalAlignment(JLabel.CENTER);
-                    }
-
-                    // Fix 2: Ensure text is cleared/not set if image loads
-                    logoPreviewLabel.setText(null);
-                    logoPreviewLabel.setVisible(true);
-
+                    preview.logo = getLogoThumbnail(logoFile, labelWidth, labelHeight);
+                    preview.logoAlignment = info.getLogoAlignment();
                 } catch (Exception e) {
-                    logoPreviewLabel.setText("Error loading logo image for preview.");
-                    logoPreviewLabel.setForeground(Color.RED);
-                    logoPreviewLabel.setVisible(true);
+                    preview.logoMessage = "Error loading logo image for preview.";
                 }
             } else {
-                logoPreviewLabel.setText("Logo file missing at saved path. (Preview Unavailable)");
-                logoPreviewLabel.setForeground(Color.RED);
-                logoPreviewLabel.setVisible(true);
+                preview.logoMessage = "Logo file missing at saved path. (Preview Unavailable)";
             }
         }
-        // --- LOGO PREVIEW DISPLAY FIX END ---
 
         if (info != null) {
-            // ... (rest of the infoArea logic is unchanged)
             StringBuilder infoText = new StringBuilder();
             infoText.append("Template Name: ").append(info.getDisplayName()).append("\n\n");
             infoText.append("Description: ").append(info.getDescription()).append("\n\n");
@@ -311,14 +393,102 @@ public class TemplateManagerDialog extends JDialog {
                 infoText.append("Logo: None");
             }
 
-            infoArea.setText(infoText.toString());
+            preview.infoText = infoText.toString();
         } else {
-            infoArea.setText("No information available for this template");
+            preview.infoText = "No information available for this template";
         }
 
+        return Thread.currentThread().isInterrupted() ? null : preview;
+    }
+
+    private void showPreview(TemplatePreview preview) {
+        previewArea.setText(preview.previewText);
+        previewArea.setCaretPosition(0);
+
+        logoPreviewLabel.setIcon(null);
+        logoPreviewLabel.setText(null); // Fix 2: Ensure logo name is cleared/not set
+        logoPreviewLabel.setVisible(false);
+
+        if (preview.logo != null) {
+            logoPreviewLabel.setIcon(new ImageIcon(preview.logo));
+
+            // Fix 1: Set alignment for the logo icon
+            if ("LEFT".equals(preview.logoAlignment)) {
+                logoPreviewLabel.setHorizontalAlignment(JLabel.LEFT);
+            } else if ("RIGHT".equals(preview.logoAlignment)) {
+                logoPreviewLabel.setHorizontalAlignment(JLabel.RIGHT);
+            } else { // CENTER or default
+                logoPreviewLabel.setHorizontalAlignment(JLabel.CENTER);
+            }
+            logoPreviewLabel.setVisible(true);
+        } else if (preview.logoMessage != null) {
+            logoPreviewLabel.setText(preview.logoMessage);
+            logoPreviewLabel.setForeground(Color.RED);
+            logoPreviewLabel.setVisible(true);
+        }
+
+        infoArea.setText(preview.infoText);
         infoArea.setCaretPosition(0);
     }
 
+    /**
+     * Returns the logo scaled to fit the preview label, from the thumbnail
+     * cache when the file has not changed since it was last scaled.
+     */
+    private static BufferedImage getLogoThumbnail(File logoFile, int labelWidth, int labelHeight)
+            throws IOException {
+        String key = logoFile.getAbsolutePath() + "|" + logoFile.lastModified() + "|" + labelWidth + "x" + labelHeight;
+        synchronized (THUMBNAILS) {
+            BufferedImage cached = THUMBNAILS.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Load the original image
+        BufferedImage originalImage = LogoRaster.read(logoFile);
+        if (originalImage == null) {
+            throw new IOException("Unsupported image format");
+        }
+
+        int imageWidth = originalImage.getWidth();
+        int imageHeight = originalImage.getHeight();
+
+        // Calculate scaling ratio to fit within the label bounds
+        double scale = Math.min((double) labelWidth / imageWidth, (double) labelHeight / imageHeight);
+        int scaledWidth = Math.max(1, (int) (imageWidth * scale * 0.9)); // Use 90% of max size for padding
+        int scaledHeight = Math.max(1, (int) (imageHeight * scale * 0.9));
+
+        // Scale eagerly here rather than with getScaledInstance, which would
+        // defer the work to the first paint on the EDT
+        BufferedImage thumbnail = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = thumbnail.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2.drawImage(originalImage, 0, 0, scaledWidth, scaledHeight, null);
+        g2.dispose();
+
+        synchronized (THUMBNAILS) {
+            THUMBNAILS.put(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    @Override
+    public void dispose() {
+        if (pendingPreview != null) {
+            pendingPreview.cancel(true);
+        }
+        previewExecutor.shutdownNow();
+        searchExecutor.shutdownNow();
+        super.dispose();
+    }
+
+    private String getSelectedTemplateName() {
+        TemplateListItem selected = templatesList.getSelectedValue();
+        return selected != null ? selected.getName() : null;
+    }
+
     private void updateButtonStates() {
         boolean hasSelection = templatesList.getSelectedValue() != null;
         loadButton.setEnabled(hasSelection);
@@ -327,16 +497,19 @@ public class TemplateManagerDialog extends JDialog {
     }
 
     private void loadSelectedTemplate() {
-        String selectedTemplate = templatesList.getSelectedValue();
+        String selectedTemplate = getSelectedTemplateName();
         if (selectedTemplate == null) {
             return;
         }
 
+        // Taken before reading, so a save in between shows up as a conflict later
+        long version = templateManager.getTemplateVersion(selectedTemplate);
         String content = templateManager.loadTemplate(selectedTemplate);
         TemplateManager.TemplateInfo info = templateManager.getTemplateInfo(selectedTemplate);
 
         if (content != null) {
             parentFrame.setReceiptContent(content);
+            parentFrame.setLoadedTemplate(selectedTemplate, version);
 
             // Load logo if available
             if (info != null && info.hasLogo()) {
@@ -370,7 +543,7 @@ public class TemplateManagerDialog extends JDialog {
     }
 
     private void deleteSelectedTemplate() {
-        String selectedTemplate = templatesList.getSelectedValue();
+        String selectedTemplate = getSelectedTemplateName();
         if (selectedTemplate == null) {
             return;
         }
@@ -398,7 +571,7 @@ public class TemplateManagerDialog extends JDialog {
     }
 
     private void exportSelectedTemplate() {
-        String selectedTemplate = templatesList.getSelectedValue();
+        String selectedTemplate = getSelectedTemplateName();
         if (selectedTemplate == null) {
             return;
         }
@@ -482,6 +655,7 @@ public class TemplateManagerDialog extends JDialog {
             String templateName = saveDialog.getTemplateName();
             String description = saveDialog.getDescription();
 
+            long expectedVersion = TemplateManager.NO_VERSION;
             if (templateManager.templateExists(templateName)) {
                 int result = JOptionPane.showConfirmDialog(this,
                         "A template with the name '" + templateName + "' already exists.\nDo you want to overwrite it?",
@@ -492,6 +666,10 @@ public class TemplateManagerDialog extends JDialog {
                 if (result != JOptionPane.YES_OPTION) {
                     return;
                 }
+                // Overwrite the version the editor was loaded from, or the one just confirmed
+                expectedVersion = templateName.equals(parentFrame.getLoadedTemplateName())
+                        ? parentFrame.getLoadedTemplateVersion()
+                        : templateManager.getTemplateVersion(templateName);
             }
 
             // Get logo information from main frame
@@ -499,8 +677,27 @@ public class TemplateManagerDialog extends JDialog {
             Integer logoWidth = parentFrame.getLogoWidth();
             String logoAlignment = parentFrame.getLogoAlignment();
 
-            if (templateManager.saveTemplate(templateName, currentContent, description,
-                    logoPath, logoWidth, logoAlignment)) {
+            boolean saved;
+            try {
+                saved = templateManager.saveTemplate(templateName, currentContent, description,
+                        logoPath, logoWidth, logoAlignment, expectedVersion);
+            } catch (TemplateConflictException e) {
+                int result = JOptionPane.showConfirmDialog(this,
+                        e.getMessage() + " in the meantime.\nDo you want to overwrite it anyway?",
+                        "Template Changed",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.WARNING_MESSAGE);
+
+                if (result != JOptionPane.YES_OPTION) {
+                    loadTemplatesList();
+                    return;
+                }
+                saved = templateManager.saveTemplate(templateName, currentContent, description,
+                        logoPath, logoWidth, logoAlignment);
+            }
+
+            if (saved) {
+                parentFrame.setLoadedTemplate(templateName, templateManager.getTemplateVersion(templateName));
                 String message = "Template '" + templateName + "' saved successfully!";
                 if (logoPath != null) {
                     message += "\n(includes logo)";
@@ -519,31 +716,66 @@ public class TemplateManagerDialog extends JDialog {
         }
     }
 
-    private class TemplateListCellRenderer extends DefaultListCellRenderer {
+    /**
+     * Preview pane contents, built off the EDT for the selected template.
+     */
+    private static final class TemplatePreview {
+
+        private String previewText;
+        private String infoText;
+        private BufferedImage logo;
+        private String logoAlignment;
+        private String logoMessage;
+    }
+
+    /**
+     * List entry carrying everything the cell renderer shows, so painting a
+     * cell never touches the template store.
+     */
+    private static final class TemplateListItem {
+
+        private final String name;
+        private final boolean hasLogo;
+        private final String toolTip;
+
+        private TemplateListItem(TemplateManager.TemplateInfo info) {
+            this.name = info.getDisplayName();
+            this.hasLogo = info.hasLogo();
+
+            String description = info.getDescription();
+            this.toolTip = (description != null && !description.isEmpty() ? description + " - " : "")
+                    + info.getFormattedDate();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class TemplateListCellRenderer extends DefaultListCellRenderer {
 
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, int index,
                 boolean isSelected, boolean cellHasFocus) {
             super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
 
-            if (value != null) {
-                String templateName = value.toString();
-                setText(templateName);
-
-                // Check if template has a logo
-                TemplateManager.TemplateInfo info = templateManager.getTemplateInfo(templateName);
-                if (info != null && info.hasLogo()) {
-                    setIcon(new TemplateIconWithLogo());
-                } else {
-                    setIcon(new TemplateIcon());
-                }
+            if (value instanceof TemplateListItem) {
+                TemplateListItem item = (TemplateListItem) value;
+                setText(item.getName());
+                setIcon(item.hasLogo ? TEMPLATE_WITH_LOGO_ICON : TEMPLATE_ICON);
+                setToolTipText(item.toolTip);
             }
 
             return this;
         }
     }
 
-    private class TemplateIcon implements Icon {
+    private static class TemplateIcon implements Icon {
 
         @Override
         public void paintIcon(Component c, Graphics g, int x, int y) {
@@ -572,7 +804,7 @@ public class TemplateManagerDialog extends JDialog {
         }
     }
 
-    private class TemplateIconWithLogo implements Icon {
+    private static class TemplateIconWithLogo implements Icon {
 
         @Override
         public void paintIcon(Component c, Graphics g, int x, int y) {
@@ -613,18 +845,6 @@ public class TemplateManagerDialog extends JDialog {
             return null;
         }
 
-        String processed = content;
-
-        processed = processed.replaceAll(
-                "\\[BOLD\\]|\\[/BOLD\\]|"
-                + "\\[SIZE=\\d+\\]|\\[/SIZE\\]|"
-                + "\\[FONT=[^\\]]+\\]|\\[/FONT\\]|"
-                + "\\[CENTER\\]|\\[/CENTER\\]|"
-                + "\\[RIGHT\\]|\\[/RIGHT\\]|"
-                + "\\[LEFT\\]|\\[/LEFT\\]",
-                ""
-        );
-
-        return processed;
+        return MarkupTokenizer.stripTags(content, true);
     }
 }
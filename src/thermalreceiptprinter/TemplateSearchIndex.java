@@ -0,0 +1,185 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over template names, descriptions and bodies.
+ * Every word of a query must match the start of an indexed word, so
+ * "xmas coff" finds a template named "Xmas Special" that sells coffee.
+ *
+ * Documents are added, replaced and removed one at a time; nothing is
+ * rebuilt when a single template changes.
+ */
+final class TemplateSearchIndex {
+
+    private static final class Document {
+
+        private final String fileName;
+        private final String displayName;
+        private final long contentHash;
+        private final TemplateStore.Entry entry;
+        private final Set<String> tokens;
+
+        private Document(String fileName, String displayName, long contentHash,
+                TemplateStore.Entry entry, Set<String> tokens) {
+            this.fileName = fileName;
+            this.displayName = displayName;
+            this.contentHash = contentHash;
+            this.entry = entry;
+            this.tokens = tokens;
+        }
+    }
+
+    // Word -> file names containing it; sorted so a prefix is a sub-map
+    private final TreeMap<String, Set<String>> postings = new TreeMap<>();
+    private final Map<String, Document> documents = new HashMap<>();
+
+    /**
+     * Indexes a template, replacing any earlier version of it.
+     */
+    synchronized void put(TemplateStore.Entry entry, String body) {
+        String fileName = entry.getFileName();
+        TemplateManager.TemplateInfo info = entry.getInfo();
+        String displayName = entry.getDisplayName();
+
+        Set<String> tokens = new HashSet<>();
+        tokenize(fileName, tokens);
+        tokenize(displayName, tokens);
+        if (info != null) {
+            tokenize(info.getDescription(), tokens);
+        }
+        if (body != null) {
+            tokenize(MarkupTokenizer.stripTags(body, true), tokens);
+        }
+
+        remove(fileName);
+        documents.put(fileName, new Document(fileName, displayName, entry.getContentHash(), entry, tokens));
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, t -> new HashSet<>()).add(fileName);
+        }
+    }
+
+    synchronized void remove(String fileName) {
+        Document old = documents.remove(fileName);
+        if (old == null) {
+            return;
+        }
+        for (String token : old.tokens) {
+            Set<String> files = postings.get(token);
+            if (files != null) {
+                files.remove(fileName);
+                if (files.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        postings.clear();
+        documents.clear();
+    }
+
+    /**
+     * True when the indexed version of the template is this exact store
+     * entry, or has the same body and text fields.
+     */
+    synchronized boolean isCurrent(TemplateStore.Entry entry) {
+        Document document = documents.get(entry.getFileName());
+        if (document == null) {
+            return false;
+        }
+        if (document.entry == entry) {
+            return true;
+        }
+        return document.contentHash == entry.getContentHash()
+                && document.displayName.equals(entry.getDisplayName())
+                && sameDescription(document.entry.getInfo(), entry.getInfo());
+    }
+
+    synchronized Set<String> getFileNames() {
+        return new HashSet<>(documents.keySet());
+    }
+
+    /**
+     * Returns the file names of the templates matching every word of the
+     * query, ordered by display name. A blank query matches everything.
+     */
+    synchronized List<String> search(String query) {
+        List<String> words = new ArrayList<>();
+        tokenize(query, words);
+
+        List<Document> matches = new ArrayList<>();
+        if (words.isEmpty()) {
+            matches.addAll(documents.values());
+        } else {
+            Set<String> result = null;
+            for (String word : words) {
+                Set<String> files = matchPrefix(word);
+                if (result == null) {
+                    result = files;
+                } else {
+                    result.retainAll(files);
+                }
+                if (result.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+            for (String fileName : result) {
+                matches.add(documents.get(fileName));
+            }
+        }
+
+        matches.sort((a, b) -> a.displayName.compareTo(b.displayName));
+        List<String> fileNames = new ArrayList<>(matches.size());
+        for (Document document : matches) {
+            fileNames.add(document.fileName);
+        }
+        return fileNames;
+    }
+
+    private Set<String> matchPrefix(String prefix) {
+        Set<String> files = new HashSet<>();
+        NavigableMap<String, Set<String>> range = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        for (Set<String> posting : range.values()) {
+            files.addAll(posting);
+        }
+        return files;
+    }
+
+    private static boolean sameDescription(TemplateManager.TemplateInfo a, TemplateManager.TemplateInfo b) {
+        String first = a != null ? a.getDescription() : "";
+        String second = b != null ? b.getDescription() : "";
+        return first.equals(second);
+    }
+
+    /**
+     * Splits text into lowercase runs of letters and digits.
+     */
+    static void tokenize(String text, Collection<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package thermalreceiptprinter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Storage behind {@link TemplateManager}. Templates are addressed by their
+ * sanitized file name; implementations keep their metadata in memory so
+ * listing never has to touch the disk.
+ */
+interface TemplateStore {
+
+    /**
+     * Expected version that skips the conflict check: last writer wins.
+     */
+    long ANY_VERSION = -1;
+
+    /**
+     * Version of a template that does not exist.
+     */
+    long NO_VERSION = 0;
+
+    final class Entry {
+
+        private final String fileName;
+        private final TemplateManager.TemplateInfo info;
+        private final long contentHash;
+        private final long size;
+        private final long lastModified;
+        private final long version;
+
+        Entry(String fileName, TemplateManager.TemplateInfo info, long contentHash, long size, long lastModified,
+                long version) {
+            this.fileName = fileName;
+            this.info = info;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.version = version;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Returns the saved metadata, or null if none was saved.
+         */
+        public TemplateManager.TemplateInfo getInfo() {
+            return info;
+        }
+
+        public String getDisplayName() {
+            return info != null ? info.getDisplayName() : fileName;
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Stamp that changes with every save of the template, in any
+         * process. Never {@link #NO_VERSION}.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Version stamp over the saved content and metadata bytes.
+         */
+        static long version(CRC32 contentCrc, byte[] infoBytes) {
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(8).putLong(contentCrc.getValue()).array());
+            crc.update(infoBytes);
+            long version = crc.getValue();
+            return version != NO_VERSION ? version : 1;
+        }
+    }
+
+    Entry get(String fileName);
+
+    List<Entry> getEntries();
+
+    /**
+     * Returns the sorted display names.
+     */
+    List<String> getDisplayNames();
+
+    /**
+     * Returns the template content, or null if there is no such template.
+     */
+    String read(String fileName) throws IOException;
+
+    /**
+     * Saves a template if its current version, checked against what is on
+     * disk and not just what this process has seen, is
+     * {@code expectedVersion}. Saves of different templates do not wait for
+     * each other.
+     *
+     * @param expectedVersion the version the caller last saw,
+     * {@link #NO_VERSION} if the template must not exist yet, or
+     * {@link #ANY_VERSION} to overwrite unconditionally
+     * @throws TemplateConflictException if another writer got there first
+     */
+    void write(String fileName, String content, TemplateManager.TemplateInfo info, long expectedVersion)
+            throws IOException;
+
+    /**
+     * Returns false if there was no such template.
+     */
+    boolean delete(String fileName) throws IOException;
+
+    /**
+     * Drops everything held in memory; the next access reloads from disk.
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,44 @@
+package thermalreceiptprinter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Soft-wrapping in {@link ReceiptLayout}, including characters wider than a
+ * whole line.
+ */
+public class ReceiptLayoutTest {
+
+    private static final ReceiptLayout NARROW = new ReceiptLayout(32, "LEFT");
+
+    private static List<String> rows(String markup) {
+        List<String> rows = new ArrayList<>();
+        for (ReceiptLine line : NARROW.layout(ReceiptDocument.parse(markup, null))) {
+            rows.add(line.getPlainText());
+        }
+        return rows;
+    }
+
+    @Test
+    public void oversizedCharacterGetsItsOwnRow() {
+        assertEquals(Arrays.asList("X"), rows("[SIZE=700]X[/SIZE]"));
+        assertEquals(Arrays.asList("abc", "X"), rows("abc [SIZE=700]X[/SIZE]"));
+        assertEquals(Arrays.asList("X", "Y", "Z", "abc"), rows("[SIZE=700]XY Z[/SIZE] abc"));
+    }
+
+    @Test
+    public void oversizedSpacesStayOneLine() {
+        assertEquals(1, rows("[SIZE=700]   [/SIZE]").size());
+    }
+
+    @Test
+    public void spaceAfterBreakIsDropped() {
+        String word = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        assertEquals(Arrays.asList(word, "bbb"), rows(word + " bbb"));
+        assertEquals(Arrays.asList("aaaaaaaaaaaaaaaaaa", "aa bbb"),
+                rows("[SIZE=24]aaaaaaaaaaaaaaaaaaaa bbb[/SIZE]"));
+    }
+}